@@ -0,0 +1,41 @@
+package com.mantra.morfinauthdemo;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class BufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> free;
+
+    public BufferPool(int bufferSize, int bufferCount) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(new byte[bufferSize]);
+        }
+    }
+
+    public static int scratchSizeFor(int width, int height) {
+        return width * height + 1111;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int available() {
+        return free.size();
+    }
+
+    // Blocks while every buffer is in flight, so a slow consumer throttles the producer.
+    public PooledBuffer acquire() throws InterruptedException {
+        return new PooledBuffer(this, free.take());
+    }
+
+    void recycle(byte[] data) {
+        if (data.length == bufferSize) {
+            free.offer(data);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.mantra.morfinauthdemo;
+
+import java.nio.ByteBuffer;
+
+// Matchers that can score a gallery template where it lies, e.g. in a mapped snapshot file.
+public interface BufferTemplateMatcher extends TemplateMatcher {
+
+    int match(byte[] probeTemplate, ByteBuffer gallery, int offset, int length, int[] score);
+}
@@ -0,0 +1,76 @@
+package com.mantra.morfinauthdemo;
+
+import java.util.Arrays;
+
+public class CandidatePrefilter {
+
+    // Enrolled with poor quality, the cheap features are unreliable, so these entries are never pruned.
+    private static final int LOW_QUALITY = 40;
+    private static final int LOW_NFIQ = 4;
+
+    private final double candidateFraction;
+    private final int minCandidates;
+    private final boolean exhaustiveFallback;
+
+    public CandidatePrefilter(double candidateFraction, int minCandidates, boolean exhaustiveFallback) {
+        if (candidateFraction <= 0 || candidateFraction > 1) {
+            throw new IllegalArgumentException("candidateFraction must be in (0, 1]");
+        }
+        this.candidateFraction = candidateFraction;
+        this.minCandidates = Math.max(1, minCandidates);
+        this.exhaustiveFallback = exhaustiveFallback;
+    }
+
+    public boolean isExhaustiveFallback() {
+        return exhaustiveFallback;
+    }
+
+    public CandidateSelection select(byte[] probeTemplate, GalleryEntry[] gallery) {
+        byte[] probeFeatures = TemplateFeatures.extract(probeTemplate);
+        if (probeFeatures == null || gallery.length <= minCandidates) {
+            return new CandidateSelection(gallery, gallery.length);
+        }
+
+        // Pack (distance, index) into one long so a primitive sort ranks the gallery.
+        long[] ranked = new long[gallery.length];
+        for (int i = 0; i < gallery.length; i++) {
+            GalleryEntry entry = gallery[i];
+            long distance;
+            if (entry.features == null || isLowQuality(entry)) {
+                distance = 0;
+            } else {
+                distance = TemplateFeatures.distance(probeFeatures, entry.features) + 1;
+            }
+            ranked[i] = distance << 32 | i;
+        }
+        Arrays.sort(ranked);
+
+        GalleryEntry[] ordered = new GalleryEntry[gallery.length];
+        int alwaysIncluded = 0;
+        for (int i = 0; i < ranked.length; i++) {
+            ordered[i] = gallery[(int) ranked[i]];
+            if (ranked[i] >>> 32 == 0) {
+                alwaysIncluded++;
+            }
+        }
+
+        int primary = Math.max(minCandidates, (int) Math.ceil(gallery.length * candidateFraction));
+        primary = Math.min(gallery.length, Math.max(primary, alwaysIncluded));
+        return new CandidateSelection(ordered, primary);
+    }
+
+    private static boolean isLowQuality(GalleryEntry entry) {
+        return (entry.quality > 0 && entry.quality < LOW_QUALITY) || entry.nfiq >= LOW_NFIQ;
+    }
+
+    public static class CandidateSelection {
+
+        public final GalleryEntry[] ordered;
+        public final int primaryCount;
+
+        CandidateSelection(GalleryEntry[] ordered, int primaryCount) {
+            this.ordered = ordered;
+            this.primaryCount = primaryCount;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.mantra.morfinauthdemo;
+
+public class CaptureFrame {
+
+    public final int fingerNumber;
+    public final PooledBuffer image;
+    public final byte[] template;
+    public final int quality;
+    public final int nfiq;
+    // Set by the archive stage to the encoded image that is written to disk and to the database.
+    public byte[] archivedImage;
+
+    public CaptureFrame(int fingerNumber, PooledBuffer image, byte[] template, int quality, int nfiq) {
+        this.fingerNumber = fingerNumber;
+        this.image = image;
+        this.template = template;
+        this.quality = quality;
+        this.nfiq = nfiq;
+    }
+
+    public void release() {
+        if (image != null) {
+            image.release();
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package com.mantra.morfinauthdemo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// One day of captured images in an append-only pack file, with a fixed-size offset index beside it.
+//
+// Pack records (big-endian): magic, type, body length, CRC32 of the body, body.
+//   CAPTURE body: session id (15), finger, quality, nfiq, format, captured-at millis, image.
+//   LABEL body:   session id (15), finger, user id (16); names the user once enrollment is committed.
+// Index: 16-byte header (magic, version, pack offset the index covers) and one 48-byte entry per capture:
+//   record offset, body length, body CRC, session id (15), finger, user id (16).
+// The pack is the source of truth; anything past the indexed offset is rescanned on open and a torn
+// tail record is cut off.
+public class CapturePack implements Closeable {
+
+    static final int RECORD_MAGIC = 0x46505231;  // "FPR1"
+    static final int INDEX_MAGIC = 0x46504931;   // "FPI1"
+    static final int INDEX_VERSION = 1;
+
+    static final byte TYPE_CAPTURE = 1;
+    static final byte TYPE_LABEL = 2;
+
+    static final int RECORD_HEADER_LENGTH = 13;
+    static final int INDEX_HEADER_LENGTH = 16;
+    static final int INDEX_ENTRY_LENGTH = 48;
+
+    static final int SESSION_ID_LENGTH = 15;
+    static final int USER_ID_LENGTH = 16;
+    private static final int CAPTURE_META_LENGTH = SESSION_ID_LENGTH + 4 + 8;
+    private static final int LABEL_LENGTH = SESSION_ID_LENGTH + 1 + USER_ID_LENGTH;
+    private static final int USER_ID_INDEX_OFFSET = 8 + 4 + 4 + SESSION_ID_LENGTH + 1;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final File packFile;
+    private final RandomAccessFile packRaf;
+    private final RandomAccessFile indexRaf;
+    private final FileChannel pack;
+    private final FileChannel index;
+    private final List<Entry> entries = new ArrayList<>();
+    private long packEnd;
+
+    private CapturePack(File packFile, RandomAccessFile packRaf, RandomAccessFile indexRaf) {
+        this.packFile = packFile;
+        this.packRaf = packRaf;
+        this.indexRaf = indexRaf;
+        this.pack = packRaf.getChannel();
+        this.index = indexRaf.getChannel();
+    }
+
+    public static CapturePack open(File packFile) throws IOException {
+        RandomAccessFile packRaf = new RandomAccessFile(packFile, "rw");
+        RandomAccessFile indexRaf;
+        try {
+            indexRaf = new RandomAccessFile(indexFileFor(packFile), "rw");
+        } catch (IOException e) {
+            packRaf.close();
+            throw e;
+        }
+        CapturePack capturePack = new CapturePack(packFile, packRaf, indexRaf);
+        try {
+            capturePack.recover();
+        } catch (IOException e) {
+            capturePack.close();
+            throw e;
+        }
+        return capturePack;
+    }
+
+    static File indexFileFor(File packFile) {
+        String name = packFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(packFile.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".idx");
+    }
+
+    public File getFile() {
+        return packFile;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    public synchronized List<Entry> findBySession(String sessionId) {
+        List<Entry> found = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.sessionId.equals(sessionId)) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+    public synchronized List<Entry> findByUser(String userId) {
+        List<Entry> found = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (userId.equals(entry.userId)) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+    public synchronized Entry append(String sessionId, int fingerNumber, int quality, int nfiq,
+                                     ImageArchiver.Format format, long capturedAt, byte[] image) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(CAPTURE_META_LENGTH + image.length);
+        putFixed(body, sessionId, SESSION_ID_LENGTH);
+        body.put((byte) fingerNumber);
+        body.put((byte) quality);
+        body.put((byte) nfiq);
+        body.put((byte) format.ordinal());
+        body.putLong(capturedAt);
+        body.put(image);
+        body.flip();
+
+        long offset = packEnd;
+        int crc = writeRecord(TYPE_CAPTURE, body);
+        Entry entry = new Entry(this, offset, body.limit(), crc, sessionId, fingerNumber, null);
+        writeIndexEntry(entries.size(), entry);
+        entries.add(entry);
+        writeIndexedEnd();
+        return entry;
+    }
+
+    // Attaches the enrolled user id to a capture; the latest capture for the finger wins.
+    public synchronized boolean label(String sessionId, int fingerNumber, String userId) throws IOException {
+        int position = find(sessionId, fingerNumber);
+        if (position < 0) {
+            return false;
+        }
+        ByteBuffer body = ByteBuffer.allocate(LABEL_LENGTH);
+        putFixed(body, sessionId, SESSION_ID_LENGTH);
+        body.put((byte) fingerNumber);
+        putFixed(body, userId, USER_ID_LENGTH);
+        body.flip();
+
+        writeRecord(TYPE_LABEL, body);
+        entries.get(position).userId = userId;
+        writeIndexUserId(position, userId);
+        writeIndexedEnd();
+        return true;
+    }
+
+    public Capture read(Entry entry) throws IOException {
+        if (entry.pack != this) {
+            throw new IllegalArgumentException("Entry belongs to " + entry.pack.packFile);
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        readFully(pack, header, entry.offset);
+        header.flip();
+        if (header.getInt() != RECORD_MAGIC || header.get() != TYPE_CAPTURE || header.getInt() != entry.length) {
+            throw new IOException("Bad capture record at " + entry.offset + " in " + packFile);
+        }
+        int crc = header.getInt();
+
+        ByteBuffer body = ByteBuffer.allocate(entry.length);
+        readFully(pack, body, entry.offset + RECORD_HEADER_LENGTH);
+        if (crc(body.array(), entry.length) != crc || crc != entry.crc) {
+            throw new IOException("Checksum mismatch at " + entry.offset + " in " + packFile);
+        }
+        body.flip();
+
+        String sessionId = getFixed(body, SESSION_ID_LENGTH);
+        int fingerNumber = body.get() & 0xFF;
+        int quality = body.get() & 0xFF;
+        int nfiq = body.get() & 0xFF;
+        int formatOrdinal = body.get() & 0xFF;
+        if (formatOrdinal >= ImageArchiver.Format.values().length) {
+            throw new IOException("Unknown image format " + formatOrdinal + " at " + entry.offset + " in " + packFile);
+        }
+        ImageArchiver.Format format = ImageArchiver.Format.values()[formatOrdinal];
+        long capturedAt = body.getLong();
+        byte[] image = new byte[body.remaining()];
+        body.get(image);
+        return new Capture(sessionId, entry.userId, fingerNumber, quality, nfiq, format, capturedAt, image);
+    }
+
+    // Re-reads every capture and checks its CRC; returns how many are damaged.
+    public int verify() {
+        int damaged = 0;
+        for (Entry entry : getEntries()) {
+            try {
+                read(entry);
+            } catch (IOException e) {
+                damaged++;
+            }
+        }
+        return damaged;
+    }
+
+    public synchronized void sync() throws IOException {
+        pack.force(false);
+        index.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            packRaf.close();
+        } finally {
+            indexRaf.close();
+        }
+    }
+
+    private int find(String sessionId, int fingerNumber) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            if (entry.fingerNumber == fingerNumber && entry.sessionId.equals(sessionId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int writeRecord(byte type, ByteBuffer body) throws IOException {
+        int length = body.remaining();
+        int crc = crc(body.array(), length);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        header.putInt(RECORD_MAGIC).put(type).putInt(length).putInt(crc);
+        header.flip();
+
+        long position = packEnd;
+        position += writeFully(pack, header, position);
+        position += writeFully(pack, body, position);
+        packEnd = position;
+        return crc;
+    }
+
+    private void writeIndexEntry(int position, Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_ENTRY_LENGTH);
+        buffer.putLong(entry.offset).putInt(entry.length).putInt(entry.crc);
+        putFixed(buffer, entry.sessionId, SESSION_ID_LENGTH);
+        buffer.put((byte) entry.fingerNumber);
+        putFixed(buffer, entry.userId != null ? entry.userId : "", USER_ID_LENGTH);
+        buffer.flip();
+        writeFully(index, buffer, INDEX_HEADER_LENGTH + (long) position * INDEX_ENTRY_LENGTH);
+    }
+
+    private void writeIndexUserId(int position, String userId) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(USER_ID_LENGTH);
+        putFixed(buffer, userId, USER_ID_LENGTH);
+        buffer.flip();
+        writeFully(index, buffer, INDEX_HEADER_LENGTH + (long) position * INDEX_ENTRY_LENGTH + USER_ID_INDEX_OFFSET);
+    }
+
+    private void writeIndexedEnd() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_LENGTH);
+        header.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putLong(packEnd);
+        header.flip();
+        writeFully(index, header, 0);
+    }
+
+    private void recover() throws IOException {
+        long indexedEnd = readIndex();
+        long packSize = pack.size();
+        if (indexedEnd > packSize) {
+            // Index claims more than the pack holds; trust only what a rescan finds.
+            entries.clear();
+            indexedEnd = 0;
+        }
+
+        // Entries written after the last header update are rebuilt by the rescan below.
+        for (int i = entries.size() - 1; i >= 0 && entries.get(i).offset >= indexedEnd; i--) {
+            entries.remove(i);
+        }
+
+        long position = indexedEnd;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        while (position + RECORD_HEADER_LENGTH <= packSize) {
+            header.clear();
+            readFully(pack, header, position);
+            header.flip();
+            int magic = header.getInt();
+            byte type = header.get();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (magic != RECORD_MAGIC || length < 0 || position + RECORD_HEADER_LENGTH + length > packSize) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(pack, body, position + RECORD_HEADER_LENGTH);
+            if (crc(body.array(), length) != crc) {
+                break;
+            }
+            body.flip();
+
+            if (type == TYPE_CAPTURE && length >= CAPTURE_META_LENGTH) {
+                String sessionId = getFixed(body, SESSION_ID_LENGTH);
+                int fingerNumber = body.get() & 0xFF;
+                entries.add(new Entry(this, position, length, crc, sessionId, fingerNumber, null));
+            } else if (type == TYPE_LABEL && length == LABEL_LENGTH) {
+                String sessionId = getFixed(body, SESSION_ID_LENGTH);
+                int fingerNumber = body.get() & 0xFF;
+                int target = find(sessionId, fingerNumber);
+                if (target >= 0) {
+                    entries.get(target).userId = getFixed(body, USER_ID_LENGTH);
+                }
+            } else {
+                break;
+            }
+            position += RECORD_HEADER_LENGTH + length;
+        }
+
+        packEnd = position;
+        if (packSize > position) {
+            pack.truncate(position);
+        }
+        if (position != indexedEnd || index.size() != INDEX_HEADER_LENGTH + (long) entries.size() * INDEX_ENTRY_LENGTH) {
+            rewriteIndex();
+        }
+    }
+
+    // Loads index entries; returns the pack offset they cover, or 0 when the index is missing or unusable.
+    private long readIndex() throws IOException {
+        long size = index.size();
+        if (size < INDEX_HEADER_LENGTH) {
+            return 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_LENGTH);
+        readFully(index, header, 0);
+        header.flip();
+        if (header.getInt() != INDEX_MAGIC || header.getInt() != INDEX_VERSION) {
+            return 0;
+        }
+        long indexedEnd = header.getLong();
+
+        int count = (int) ((size - INDEX_HEADER_LENGTH) / INDEX_ENTRY_LENGTH);
+        ByteBuffer buffer = ByteBuffer.allocate(count * INDEX_ENTRY_LENGTH);
+        readFully(index, buffer, INDEX_HEADER_LENGTH);
+        buffer.flip();
+        for (int i = 0; i < count; i++) {
+            long offset = buffer.getLong();
+            int length = buffer.getInt();
+            int crc = buffer.getInt();
+            String sessionId = getFixed(buffer, SESSION_ID_LENGTH);
+            int fingerNumber = buffer.get() & 0xFF;
+            String userId = getFixed(buffer, USER_ID_LENGTH);
+            entries.add(new Entry(this, offset, length, crc, sessionId, fingerNumber,
+                    userId.isEmpty() ? null : userId));
+        }
+        return indexedEnd;
+    }
+
+    private void rewriteIndex() throws IOException {
+        index.truncate(INDEX_HEADER_LENGTH);
+        for (int i = 0; i < entries.size(); i++) {
+            writeIndexEntry(i, entries.get(i));
+        }
+        writeIndexedEnd();
+    }
+
+    private static int crc(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static void putFixed(ByteBuffer buffer, String value, int length) {
+        byte[] bytes = value.getBytes(ASCII);
+        if (bytes.length > length) {
+            throw new IllegalArgumentException("'" + value + "' is longer than " + length + " bytes");
+        }
+        buffer.put(bytes);
+        for (int i = bytes.length; i < length; i++) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static String getFixed(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        int end = 0;
+        while (end < length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, 0, end, ASCII);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    public static class Entry {
+
+        final CapturePack pack;
+        final long offset;
+        final int length;
+        final int crc;
+        public final String sessionId;
+        public final int fingerNumber;
+        // Null until the enrollment that produced the capture is committed.
+        volatile String userId;
+
+        Entry(CapturePack pack, long offset, int length, int crc, String sessionId, int fingerNumber, String userId) {
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+            this.sessionId = sessionId;
+            this.fingerNumber = fingerNumber;
+            this.userId = userId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+    }
+
+    public static class Capture {
+
+        public final String sessionId;
+        public final String userId;
+        public final int fingerNumber;
+        public final int quality;
+        public final int nfiq;
+        public final ImageArchiver.Format format;
+        public final long capturedAt;
+        public final byte[] image;
+
+        Capture(String sessionId, String userId, int fingerNumber, int quality, int nfiq,
+                ImageArchiver.Format format, long capturedAt, byte[] image) {
+            this.sessionId = sessionId;
+            this.userId = userId;
+            this.fingerNumber = fingerNumber;
+            this.quality = quality;
+            this.nfiq = nfiq;
+            this.format = format;
+            this.capturedAt = capturedAt;
+            this.image = image;
+        }
+    }
+}
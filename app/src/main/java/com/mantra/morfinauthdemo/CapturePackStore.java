@@ -0,0 +1,232 @@
+package com.mantra.morfinauthdemo;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Captured images for every session, in one CapturePack per day (yyyyMMdd.pack) under the FingerData
+// directory. Session ids are the yyyyMMdd_HHmmss timestamps the capture screens create.
+public class CapturePackStore implements Closeable {
+
+    private static final String TAG = "CapturePack";
+    private static final String PACK_EXTENSION = ".pack";
+    private static final Pattern SESSION_FOLDER = Pattern.compile("\\d{8}_\\d{6}");
+    private static final Pattern FINGER_FILE = Pattern.compile("finger_(\\d+)\\..+");
+
+    private final File directory;
+    private final Map<String, CapturePack> packs = new HashMap<>();
+
+    public CapturePackStore(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public File packFileFor(String sessionId) {
+        return new File(directory, dayOf(sessionId) + PACK_EXTENSION);
+    }
+
+    public CapturePack.Entry append(String sessionId, int fingerNumber, int quality, int nfiq,
+                                    ImageArchiver.Format format, byte[] image) throws IOException {
+        return pack(dayOf(sessionId)).append(sessionId, fingerNumber, quality, nfiq, format,
+                System.currentTimeMillis(), image);
+    }
+
+    public boolean label(String sessionId, int fingerNumber, String userId) throws IOException {
+        return pack(dayOf(sessionId)).label(sessionId, fingerNumber, userId);
+    }
+
+    public List<CapturePack.Entry> findBySession(String sessionId) throws IOException {
+        File file = packFileFor(sessionId);
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        return pack(dayOf(sessionId)).findBySession(sessionId);
+    }
+
+    // Scans every day's index; the indexes are small, the packs themselves are not touched.
+    public List<CapturePack.Entry> findByUser(String userId) throws IOException {
+        List<CapturePack.Entry> found = new ArrayList<>();
+        for (String day : days()) {
+            found.addAll(pack(day).findByUser(userId));
+        }
+        return found;
+    }
+
+    public CapturePack.Capture read(CapturePack.Entry entry) throws IOException {
+        return entry.pack.read(entry);
+    }
+
+    // Flushes open packs to storage, e.g. at the end of a session.
+    public synchronized void sync() throws IOException {
+        for (CapturePack pack : packs.values()) {
+            pack.sync();
+        }
+    }
+
+    // Moves the old one-file-per-finger session folders into packs, oldest first. Finger images are
+    // deleted only after they are synced to the pack, and fingers already packed are skipped, so an
+    // interrupted run can simply be repeated. A folder holding anything else is left in place.
+    // Returns the number of folders migrated.
+    public int migrateSessionFolders() {
+        File[] folders = directory.listFiles();
+        if (folders == null) {
+            return 0;
+        }
+        Arrays.sort(folders);
+
+        int migrated = 0;
+        for (File folder : folders) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (!folder.isDirectory() || !SESSION_FOLDER.matcher(folder.getName()).matches()) {
+                continue;
+            }
+            try {
+                migrateFolder(folder);
+                migrated++;
+            } catch (IOException e) {
+                Log.e(TAG, "Error migrating " + folder, e);
+            }
+        }
+        if (migrated > 0) {
+            Log.d(TAG, "Migrated " + migrated + " session folders into packs");
+        }
+        return migrated;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (CapturePack pack : packs.values()) {
+            try {
+                pack.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        packs.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void migrateFolder(File folder) throws IOException {
+        String sessionId = folder.getName();
+        CapturePack pack = pack(dayOf(sessionId));
+        List<CapturePack.Entry> existing = pack.findBySession(sessionId);
+
+        File[] files = folder.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + folder);
+        }
+        Arrays.sort(files);
+        // Only finger images are moved into the pack; anything else stays with the folder.
+        List<File> packed = new ArrayList<>();
+        for (File file : files) {
+            Matcher matcher = FINGER_FILE.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+            int fingerNumber = Integer.parseInt(matcher.group(1));
+            packed.add(file);
+            if (contains(existing, fingerNumber)) {
+                continue;
+            }
+            byte[] image = readFile(file);
+            // Older builds saved raw BMP bytes under a .jpg name; trust the content, not the extension.
+            ImageArchiver.Format format = ImageArchiver.detect(image);
+            pack.append(sessionId, fingerNumber, 0, 0, format != null ? format : ImageArchiver.Format.BMP,
+                    file.lastModified(), image);
+        }
+        pack.sync();
+
+        for (File file : packed) {
+            if (!file.delete()) {
+                Log.w(TAG, "Could not delete " + file);
+            }
+        }
+        String[] remaining = folder.list();
+        if (remaining != null && remaining.length > 0) {
+            Log.w(TAG, "Keeping " + folder + ": " + remaining.length + " files not in the pack");
+        } else if (!folder.delete()) {
+            Log.w(TAG, "Could not delete " + folder);
+        }
+    }
+
+    private synchronized CapturePack pack(String day) throws IOException {
+        CapturePack pack = packs.get(day);
+        if (pack == null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            pack = CapturePack.open(new File(directory, day + PACK_EXTENSION));
+            packs.put(day, pack);
+        }
+        return pack;
+    }
+
+    private List<String> days() {
+        List<String> days = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(PACK_EXTENSION)) {
+                    days.add(name.substring(0, name.length() - PACK_EXTENSION.length()));
+                }
+            }
+        }
+        Collections.sort(days);
+        return days;
+    }
+
+    private static String dayOf(String sessionId) {
+        if (sessionId.length() != CapturePack.SESSION_ID_LENGTH || !SESSION_FOLDER.matcher(sessionId).matches()) {
+            throw new IllegalArgumentException("Not a session id: " + sessionId);
+        }
+        return sessionId.substring(0, 8);
+    }
+
+    private static boolean contains(List<CapturePack.Entry> entries, int fingerNumber) {
+        for (CapturePack.Entry entry : entries) {
+            if (entry.fingerNumber == fingerNumber) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
@@ -0,0 +1,89 @@
+package com.mantra.morfinauthdemo;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CapturePipeline {
+
+    public interface Stage {
+        void process(CaptureFrame frame) throws Exception;
+    }
+
+    private static final String TAG = "CapturePipeline";
+
+    private static final CaptureFrame END_OF_SESSION = new CaptureFrame(-1, null, null, 0, 0);
+
+    private final BlockingQueue<CaptureFrame> archiveQueue;
+    private final BlockingQueue<CaptureFrame> persistQueue;
+    private final Thread archiveThread;
+    private final Thread persistThread;
+    private final AtomicInteger failures = new AtomicInteger(0);
+
+    private boolean finished = false;
+
+    public CapturePipeline(int queueCapacity, Stage archiveStage, Stage persistStage) {
+        archiveQueue = new ArrayBlockingQueue<>(queueCapacity);
+        persistQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        archiveThread = new Thread(() -> runStage(archiveQueue, archiveStage, persistQueue), "CaptureArchive");
+        persistThread = new Thread(() -> runStage(persistQueue, persistStage, null), "CapturePersist");
+        archiveThread.start();
+        persistThread.start();
+    }
+
+    // Blocks when the archive stage is behind, which holds the scanner back instead of queueing unbounded frames.
+    public void submit(CaptureFrame frame) throws InterruptedException {
+        if (finished) {
+            throw new IllegalStateException("Capture pipeline already finished");
+        }
+        archiveQueue.put(frame);
+    }
+
+    public void finish() throws InterruptedException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        archiveQueue.put(END_OF_SESSION);
+        archiveThread.join();
+        persistThread.join();
+    }
+
+    public int getFailureCount() {
+        return failures.get();
+    }
+
+    private void runStage(BlockingQueue<CaptureFrame> input, Stage stage, BlockingQueue<CaptureFrame> output) {
+        try {
+            while (true) {
+                CaptureFrame frame = input.take();
+                if (frame == END_OF_SESSION) {
+                    if (output != null) {
+                        output.put(END_OF_SESSION);
+                    }
+                    return;
+                }
+
+                try {
+                    stage.process(frame);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    Log.e(TAG, "Stage " + Thread.currentThread().getName() + " failed for finger " + frame.fingerNumber, e);
+                    frame.release();
+                    continue;
+                }
+
+                if (output != null) {
+                    output.put(frame);
+                } else {
+                    frame.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.mantra.morfinauthdemo;
+
+import android.util.Log;
+
+import com.mantra.morfinauth.DeviceInfo;
+import com.mantra.morfinauth.enums.DeviceModel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Sole owner of the scanner. Init, uninit, capture and stop are queued to one "CaptureSession" thread
+// and move the device through explicit states, so the UI, SDK callbacks and capture loops never
+// call into the device concurrently or disagree about whether a capture is running.
+//
+// State changes are synchronized on the controller; scanner calls run on the session thread outside
+// the lock. A command that does not fit the current state is rejected up front and returns false.
+// Two calls are exempt: MatchTemplate needs no device and runs on the matcher threads, serialized
+// by SdkTemplateMatcher; StopCapture aborting a blocking AutoCapture runs on its own thread, since
+// the session thread is inside that AutoCapture.
+public class CaptureSessionController {
+
+    private static final String TAG = "CaptureSession";
+
+    public enum State {
+        // No device initialized.
+        IDLE,
+        INITIALIZING,
+        // Initialized and free for a capture.
+        READY,
+        CAPTURING,
+        // Stop requested; the capture has not ended yet.
+        STOPPING,
+        UNINITIALIZING
+    }
+
+    public interface Callback {
+        // Called on the session thread; error is set when the scanner call threw.
+        void onResult(int ret, Exception error);
+    }
+
+    public interface CaptureJob {
+        void run(Session session);
+    }
+
+    // One capture from start to finish. Handles outlive their session, so every method checks that
+    // the session is still the current one before touching state.
+    public final class Session {
+
+        private final boolean blocking;
+        private volatile boolean stopRequested;
+
+        private Session(boolean blocking) {
+            this.blocking = blocking;
+        }
+
+        public boolean isStopRequested() {
+            return stopRequested;
+        }
+
+        // True for runCapture sessions.
+        public boolean isBlocking() {
+            return blocking;
+        }
+
+        public boolean isActive() {
+            synchronized (CaptureSessionController.this) {
+                return current == this;
+            }
+        }
+
+        // Queues the next step of a StartCapture session, e.g. the capture of the next finger.
+        // Dropped if the session has ended or a stop was requested in the meantime.
+        public void next(CaptureJob job) {
+            executor.execute(() -> {
+                if (isActive() && !stopRequested) {
+                    runJob(this, job);
+                }
+            });
+        }
+
+        public void finish() {
+            synchronized (CaptureSessionController.this) {
+                if (current != this) {
+                    return;
+                }
+                current = null;
+                setState(State.READY);
+            }
+        }
+    }
+
+    private final Scanner scanner;
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "CaptureSession"));
+    private final ExecutorService abortExecutor =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "CaptureAbort"));
+
+    private State state = State.IDLE;
+    private Session current;
+
+    public CaptureSessionController(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    // The running capture, or null.
+    public synchronized Session getSession() {
+        return current;
+    }
+
+    public boolean init(DeviceModel model, String clientKey, DeviceInfo info, Callback callback) {
+        if (!transition(State.IDLE, State.INITIALIZING)) {
+            return false;
+        }
+        executor.execute(() -> {
+            int ret;
+            try {
+                ret = scanner.init(model, clientKey, info);
+            } catch (Exception e) {
+                Log.e(TAG, "Error in init", e);
+                transition(State.INITIALIZING, State.IDLE);
+                callback.onResult(Scanner.ERROR_DEVICE_NOT_CONNECTED, e);
+                return;
+            }
+            if (ret == Scanner.SUCCESS && !transition(State.INITIALIZING, State.READY)) {
+                // Disconnected while Init was running; don't leave the SDK initialized behind our back.
+                scanner.uninit();
+                ret = Scanner.ERROR_DEVICE_NOT_CONNECTED;
+            } else if (ret != Scanner.SUCCESS) {
+                transition(State.INITIALIZING, State.IDLE);
+            }
+            callback.onResult(ret, null);
+        });
+        return true;
+    }
+
+    public boolean uninit(Callback callback) {
+        if (!transition(State.READY, State.UNINITIALIZING)) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                int ret = scanner.uninit();
+                transition(State.UNINITIALIZING, ret == Scanner.SUCCESS ? State.IDLE : State.READY);
+                callback.onResult(ret, null);
+            } catch (Exception e) {
+                Log.e(TAG, "Error in uninit", e);
+                transition(State.UNINITIALIZING, State.READY);
+                callback.onResult(Scanner.ERROR_DEVICE_NOT_CONNECTED, e);
+            }
+        });
+        return true;
+    }
+
+    // AutoCapture sessions: the job owns the scanner until it returns, then the session ends.
+    // Jobs poll isStopRequested() between captures.
+    public Session runCapture(CaptureJob job) {
+        return begin(true, job);
+    }
+
+    // StartCapture sessions: the job starts the capture and returns; OnComplete continues the session
+    // with next() or ends it with finish().
+    public Session startCapture(CaptureJob job) {
+        return begin(false, job);
+    }
+
+    // A blocking session gets StopCapture on the abort thread to end the AutoCapture in progress; the job
+    // sees the flag and returns, and callback is not used. A stop that lands between two captures is
+    // only seen by the job after the next AutoCapture, which can take up to its timeout. A StartCapture
+    // session is stopped with StopCapture on the session thread and ends if that succeeds.
+    public boolean stop(Callback callback) {
+        Session session;
+        synchronized (this) {
+            session = current;
+            if (session == null || state != State.CAPTURING) {
+                return false;
+            }
+            session.stopRequested = true;
+            setState(State.STOPPING);
+        }
+        if (session.blocking) {
+            abortAutoCapture();
+            return true;
+        }
+        executor.execute(() -> {
+            int ret;
+            Exception error = null;
+            try {
+                ret = scanner.stopCapture();
+            } catch (Exception e) {
+                Log.e(TAG, "Error in stopCapture", e);
+                ret = Scanner.ERROR_DEVICE_NOT_CONNECTED;
+                error = e;
+            }
+            if (ret == Scanner.SUCCESS) {
+                session.finish();
+            } else {
+                synchronized (this) {
+                    if (current == session && state == State.STOPPING) {
+                        session.stopRequested = false;
+                        setState(State.CAPTURING);
+                    }
+                }
+            }
+            if (callback != null) {
+                callback.onResult(ret, error);
+            }
+        });
+        return true;
+    }
+
+    // OnDeviceDetection(DISCONNECTED): ends any session at once and queues the SDK cleanup behind
+    // whatever the session thread is doing, so a later Init cannot overtake it.
+    public void deviceDisconnected() {
+        boolean wasIdle;
+        synchronized (this) {
+            if (current != null) {
+                current.stopRequested = true;
+                current = null;
+            }
+            wasIdle = state == State.IDLE;
+            setState(State.IDLE);
+        }
+        if (wasIdle) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                scanner.stopCapture();
+                scanner.uninit();
+            } catch (Exception e) {
+                Log.e(TAG, "Error releasing disconnected device", e);
+            }
+        });
+    }
+
+    // Stops any session, uninitializes and disposes the scanner, and waits up to timeoutMillis for
+    // the session thread to drain.
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        boolean blocking = false;
+        synchronized (this) {
+            if (current != null) {
+                current.stopRequested = true;
+                blocking = current.blocking;
+            }
+        }
+        if (blocking) {
+            abortAutoCapture();
+        }
+        abortExecutor.shutdown();
+        executor.execute(() -> {
+            try {
+                if (getState() != State.IDLE) {
+                    scanner.stopCapture();
+                    scanner.uninit();
+                }
+                scanner.dispose();
+            } catch (Exception e) {
+                Log.e(TAG, "Error disposing scanner", e);
+            }
+            synchronized (this) {
+                current = null;
+                setState(State.IDLE);
+            }
+        });
+        executor.shutdown();
+        executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void abortAutoCapture() {
+        abortExecutor.execute(() -> {
+            try {
+                scanner.stopCapture();
+            } catch (Exception e) {
+                Log.e(TAG, "Error aborting AutoCapture", e);
+            }
+        });
+    }
+
+    private Session begin(boolean blocking, CaptureJob job) {
+        Session session = new Session(blocking);
+        synchronized (this) {
+            if (state != State.READY) {
+                return null;
+            }
+            current = session;
+            setState(State.CAPTURING);
+        }
+        executor.execute(() -> {
+            runJob(session, job);
+            if (blocking) {
+                session.finish();
+            }
+        });
+        return session;
+    }
+
+    private void runJob(Session session, CaptureJob job) {
+        try {
+            job.run(session);
+        } catch (RuntimeException e) {
+            // Jobs report their own errors; this only keeps a bug in one from wedging the session.
+            Log.e(TAG, "Capture job failed", e);
+            session.finish();
+        }
+    }
+
+    private synchronized boolean transition(State from, State to) {
+        if (state != from) {
+            return false;
+        }
+        setState(to);
+        return true;
+    }
+
+    private void setState(State next) {
+        if (state != next) {
+            Log.d(TAG, state + " -> " + next);
+            state = next;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.mantra.morfinauthdemo;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class EnrollmentSession {
+
+    private final FingerprintDatabaseHelper dbHelper;
+    private final List<Capture> captures = new ArrayList<>();
+    private boolean finished = false;
+
+    EnrollmentSession(FingerprintDatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    public synchronized void addCapture(byte[] image, byte[] template, int quality, int nfiq) {
+        if (finished) {
+            throw new IllegalStateException("Enrollment session already finished");
+        }
+        captures.add(new Capture(image, template, quality, nfiq));
+    }
+
+    public synchronized int size() {
+        return captures.size();
+    }
+
+    public synchronized List<String> commit() {
+        if (finished) {
+            throw new IllegalStateException("Enrollment session already finished");
+        }
+        finished = true;
+
+        if (captures.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<String> userIds = dbHelper.saveFingerprints(captures);
+        captures.clear();
+        return userIds;
+    }
+
+    public synchronized void abort() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        Log.d("DB", "Enrollment session aborted, discarded " + captures.size() + " captures");
+        captures.clear();
+    }
+
+    static class Capture {
+
+        final byte[] image;
+        final byte[] template;
+        final int quality;
+        final int nfiq;
+
+        Capture(byte[] image, byte[] template, int quality, int nfiq) {
+            this.image = image;
+            this.template = template;
+            this.quality = quality;
+            this.nfiq = nfiq;
+        }
+    }
+}
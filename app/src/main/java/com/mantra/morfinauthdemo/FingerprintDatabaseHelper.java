@@ -1,104 +1,246 @@
 package com.mantra.morfinauthdemo;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.mantra.morfinauthdemo.FingerprintSchema.*;
+
 public class FingerprintDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DB_NAME = "fingerprint_auth.db";
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 3;
+
 
+    private static final String SNAPSHOT_NAME = "gallery.snapshot";
 
-    public static final String TABLE_FINGERPRINTS = "fingerprints";
+    private final TemplateGallery gallery = new TemplateGallery();
+    private final File snapshotFile;
+    private final HitStatistics hitStatistics = new HitStatistics();
+    private final MetricsRegistry metrics;
+    private boolean hitStatisticsLoaded;
 
-    public static final String COL_ID = "id";
-    public static final String COL_USER_ID = "user_id";
-    public static final String COL_IMAGE = "image";
-    public static final String COL_TEMPLATE = "template";
-    public static final String COL_QUALITY = "quality";
-    public static final String COL_NFIQ = "nfiq";
-    public static final String COL_CREATED_AT = "created_at";
+    // One connection pool for the life of the process; statements are compiled once.
+    private SQLiteDatabase database;
+    private SQLiteStatement insertTemplateStatement;
+    private SQLiteStatement insertImageStatement;
+    private SQLiteStatement upsertHitStatement;
+    private SQLiteStatement countStatement;
+    private final Object writeLock = new Object();
 
     public FingerprintDatabaseHelper(Context context) {
+        this(context, new MetricsRegistry());
+    }
+
+    public FingerprintDatabaseHelper(Context context, MetricsRegistry metrics) {
         super(context, DB_NAME, null, DB_VERSION);
+        snapshotFile = new File(context.getFilesDir(), SNAPSHOT_NAME);
+        this.metrics = metrics;
+        metrics.registerGauge(MetricsRegistry.GALLERY_SIZE, gallery::size);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.execSQL(PRAGMA_CACHE_SIZE);
+        db.execSQL(PRAGMA_TEMP_STORE);
+    }
+
+    private synchronized SQLiteDatabase database() {
+        if (database == null || !database.isOpen()) {
+            database = getWritableDatabase();
+            insertTemplateStatement = database.compileStatement(INSERT_TEMPLATE);
+            insertImageStatement = database.compileStatement(INSERT_IMAGE);
+            upsertHitStatement = database.compileStatement(UPSERT_HIT);
+            countStatement = database.compileStatement("SELECT COUNT(*) FROM " + TABLE_FINGERPRINTS);
+        }
+        return database;
+    }
+
+    // Opens the connection and runs any schema migration; meant for a startup thread.
+    public void open() {
+        database();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (insertTemplateStatement != null) {
+            insertTemplateStatement.close();
+            insertTemplateStatement = null;
+        }
+        if (insertImageStatement != null) {
+            insertImageStatement.close();
+            insertImageStatement = null;
+        }
+        if (upsertHitStatement != null) {
+            upsertHitStatement.close();
+            upsertHitStatement = null;
+        }
+        if (countStatement != null) {
+            countStatement.close();
+            countStatement = null;
+        }
+        database = null;
+        super.close();
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         Log.d("DB", "Creating fingerprints table...");
 
-        String createTable = "CREATE TABLE " + TABLE_FINGERPRINTS + " (" +
-                COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                COL_USER_ID + " TEXT UNIQUE NOT NULL, " +
-                COL_IMAGE + " BLOB NOT NULL, " +
-                COL_TEMPLATE + " BLOB NOT NULL, " +
-                COL_QUALITY + " INTEGER, " +
-                COL_NFIQ + " INTEGER, " +
-                COL_CREATED_AT + " DATETIME DEFAULT CURRENT_TIMESTAMP)";
-
-        db.execSQL(createTable);
+        db.execSQL(createFingerprintsTable(TABLE_FINGERPRINTS));
+        db.execSQL(createImagesTable());
+        db.execSQL(createHitStatisticsTable());
         Log.d("DB", " Fingerprints table created");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 3) {
+            if (oldVersion < 2) {
+                migrateImagesToSeparateTable(db);
+            }
+            db.execSQL(createHitStatisticsTable());
+            return;
+        }
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_HIT_STATISTICS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_IMAGES);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_FINGERPRINTS);
         onCreate(db);
     }
 
+    private void migrateImagesToSeparateTable(SQLiteDatabase db) {
+        Log.d("DB", "Moving fingerprint images to " + TABLE_IMAGES + "...");
+        String columns = COL_ID + ", " + COL_USER_ID + ", " + COL_TEMPLATE + ", " +
+                COL_QUALITY + ", " + COL_NFIQ + ", " + COL_CREATED_AT;
+
+        db.execSQL(createImagesTable());
+        db.execSQL("INSERT INTO " + TABLE_IMAGES + " (" + COL_USER_ID + ", " + COL_IMAGE + ") " +
+                "SELECT " + COL_USER_ID + ", " + COL_IMAGE + " FROM " + TABLE_FINGERPRINTS);
+
+        db.execSQL(createFingerprintsTable(TABLE_FINGERPRINTS + "_v2"));
+        db.execSQL("INSERT INTO " + TABLE_FINGERPRINTS + "_v2 (" + columns + ") " +
+                "SELECT " + columns + " FROM " + TABLE_FINGERPRINTS);
+        db.execSQL("DROP TABLE " + TABLE_FINGERPRINTS);
+        db.execSQL("ALTER TABLE " + TABLE_FINGERPRINTS + "_v2 RENAME TO " + TABLE_FINGERPRINTS);
+        Log.d("DB", " Fingerprint images moved");
+    }
+
     public String saveFingerprint(byte[] image, byte[] template, int quality, int nfiq) {
+        List<String> userIds = saveFingerprints(
+                Collections.singletonList(new EnrollmentSession.Capture(image, template, quality, nfiq)));
+        return userIds != null ? userIds.get(0) : null;
+    }
+
+
+    public EnrollmentSession beginEnrollmentSession() {
+        return new EnrollmentSession(this);
+    }
+
+
+    List<String> saveFingerprints(List<EnrollmentSession.Capture> captures) {
         try {
-            String userId = generateUserId();
-
-            SQLiteDatabase db = this.getWritableDatabase();
-            ContentValues values = new ContentValues();
-            values.put(COL_USER_ID, userId);
-            values.put(COL_IMAGE, image);
-            values.put(COL_TEMPLATE, template);
-            values.put(COL_QUALITY, quality);
-            values.put(COL_NFIQ, nfiq);
-
-            long result = db.insert(TABLE_FINGERPRINTS, null, values);
-            db.close();
-
-            if (result != -1) {
-                Log.d("DB", " Saved: " + userId + " (Image: " + image.length + " bytes, Template: " + template.length + " bytes)");
-                return userId;
-            } else {
-                Log.e("DB", "Failed to save fingerprint");
-                return null;
+            SQLiteDatabase db = database();
+            List<String> userIds = new ArrayList<>(captures.size());
+            List<GalleryEntry> entries = new ArrayList<>(captures.size());
+
+            // Load before taking writeLock: getGallery() holds the gallery lock while it takes writeLock.
+            getGallery();
+            synchronized (writeLock) {
+                long lastRowId = -1;
+                long start = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    // Counted from the table inside the transaction: the gallery is only updated after
+                    // writeLock is released, so its size can lag behind a save that just committed.
+                    int count = (int) countStatement.simpleQueryForLong();
+                    for (EnrollmentSession.Capture capture : captures) {
+                        String userId = generateUserId(count + userIds.size());
+                        lastRowId = insertFingerprint(userId, capture);
+                        if (lastRowId == -1) {
+                            Log.e("DB", "Failed to save fingerprint " + userId);
+                            return null;
+                        }
+                        userIds.add(userId);
+                        entries.add(new GalleryEntry(userId, capture.template, capture.quality, capture.nfiq));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                metrics.recordSince(MetricsRegistry.DB_INSERT, start);
+                appendToSnapshot(entries, lastRowId);
             }
+
+            synchronized (gallery) {
+                if (gallery.isLoaded()) {
+                    for (GalleryEntry entry : entries) {
+                        gallery.add(entry);
+                    }
+                }
+            }
+            Log.d("DB", " Saved: " + userIds);
+            return userIds;
         } catch (Exception e) {
-            Log.e("DB", "Error saving fingerprint", e);
+            Log.e("DB", "Error saving fingerprints", e);
             return null;
         }
     }
 
 
-    private String generateUserId() {
+    // Returns the fingerprint row id, or -1 on failure.
+    private long insertFingerprint(String userId, EnrollmentSession.Capture capture) {
+        insertTemplateStatement.clearBindings();
+        insertTemplateStatement.bindString(1, userId);
+        insertTemplateStatement.bindBlob(2, capture.template);
+        insertTemplateStatement.bindLong(3, capture.quality);
+        insertTemplateStatement.bindLong(4, capture.nfiq);
+        long rowId = insertTemplateStatement.executeInsert();
+        if (rowId == -1) {
+            return -1;
+        }
+
+        insertImageStatement.clearBindings();
+        insertImageStatement.bindString(1, userId);
+        insertImageStatement.bindBlob(2, capture.image);
+        return insertImageStatement.executeInsert() != -1 ? rowId : -1;
+    }
+
+
+    // Called under writeLock after the rows are committed. A failed append just drops the snapshot;
+    // the next gallery load rebuilds it from SQLite.
+    private void appendToSnapshot(List<GalleryEntry> entries, long lastRowId) {
+        if (!snapshotFile.exists()) {
+            return;
+        }
         try {
-            SQLiteDatabase db = this.getReadableDatabase();
-            Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_FINGERPRINTS, null);
-            cursor.moveToFirst();
-            int count = cursor.getInt(0);
-            cursor.close();
-            db.close();
-
-            return String.format("USER_%03d", count + 1);
-        } catch (Exception e) {
-            Log.e("DB", "Error generating ID", e);
-            return "USER_001";
+            GallerySnapshot.append(snapshotFile, entries, lastRowId);
+        } catch (IOException e) {
+            Log.e("DB", "Error appending to gallery snapshot", e);
+            snapshotFile.delete();
         }
     }
 
 
+    private static String generateUserId(int count) {
+        return String.format("USER_%03d", count + 1);
+    }
+
+
     public Cursor getAllFingerprints() {
         try {
-            SQLiteDatabase db = this.getReadableDatabase();
+            SQLiteDatabase db = database();
             return db.query(TABLE_FINGERPRINTS, null, null, null, null, null,
                     COL_CREATED_AT + " DESC");
         } catch (Exception e) {
@@ -108,15 +250,220 @@ public class FingerprintDatabaseHelper extends SQLiteOpenHelper {
     }
 
 
+    public TemplateGallery getGallery() {
+        synchronized (gallery) {
+            if (!gallery.isLoaded()) {
+                List<GalleryEntry> entries = loadGalleryEntries();
+                gallery.load(entries);
+                Log.d("DB", " Gallery loaded: " + gallery.size() + " templates");
+                if (!entries.isEmpty() && entries.get(0).isMapped()) {
+                    new Thread(() -> verifyGallery(entries), "GalleryVerify").start();
+                }
+            }
+        }
+        return gallery;
+    }
+
+
+    // Checksums mapped templates in the background so corrupt ones leave the gallery before a search
+    // reaches them. Matches skip them either way; dropping the snapshot makes the next load rebuild it.
+    private void verifyGallery(List<GalleryEntry> entries) {
+        int corrupt = 0;
+        for (GalleryEntry entry : entries) {
+            if (!entry.isIntact()) {
+                Log.e("DB", "Gallery snapshot template for " + entry.userId + " is corrupt, dropping it");
+                gallery.remove(entry);
+                corrupt++;
+            }
+        }
+        if (corrupt > 0) {
+            synchronized (writeLock) {
+                snapshotFile.delete();
+            }
+        }
+    }
+
+
+    // Usable before loadHitStatistics() finishes; hits recorded meanwhile are kept.
+    public HitStatistics getHitStatistics() {
+        return hitStatistics;
+    }
+
+
+    public void loadHitStatistics() {
+        synchronized (hitStatistics) {
+            if (!hitStatisticsLoaded) {
+                hitStatistics.load(readHitStatistics());
+                hitStatisticsLoaded = true;
+                Log.d("DB", " Hit statistics loaded: " + hitStatistics.size() + " users");
+            }
+        }
+    }
+
+
+    private List<HitStatistics.Record> readHitStatistics() {
+        List<HitStatistics.Record> records = new ArrayList<>();
+        Cursor cursor = null;
+
+        try {
+            SQLiteDatabase db = database();
+            cursor = db.query(TABLE_HIT_STATISTICS, new String[]{COL_USER_ID, COL_HIT_SCORE, COL_UPDATED_AT},
+                    null, null, null, null, null);
+
+            while (cursor.moveToNext()) {
+                records.add(new HitStatistics.Record(cursor.getString(0), cursor.getDouble(1), cursor.getLong(2)));
+            }
+        } catch (Exception e) {
+            Log.e("DB", "Error loading hit statistics", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return records;
+    }
+
+
+    // Writes the records that changed since the last save and deletes the ones that went cold, in one
+    // transaction.
+    public boolean saveHitStatistics() {
+        List<String> cold = hitStatistics.pruneCold(System.currentTimeMillis());
+        List<HitStatistics.Record> changed = hitStatistics.drainDirty();
+        if (changed.isEmpty() && cold.isEmpty()) {
+            return true;
+        }
+
+        try {
+            SQLiteDatabase db = database();
+            synchronized (writeLock) {
+                db.beginTransaction();
+                try {
+                    for (HitStatistics.Record record : changed) {
+                        upsertHitStatement.clearBindings();
+                        upsertHitStatement.bindString(1, record.userId);
+                        upsertHitStatement.bindDouble(2, record.score);
+                        upsertHitStatement.bindLong(3, record.updatedAt);
+                        upsertHitStatement.executeInsert();
+                    }
+                    for (String userId : cold) {
+                        db.delete(TABLE_HIT_STATISTICS, COL_USER_ID + " = ?", new String[]{userId});
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            Log.d("DB", " Saved hit statistics for " + changed.size() + " users, dropped " + cold.size());
+            return true;
+        } catch (Exception e) {
+            Log.e("DB", "Error saving hit statistics", e);
+            return false;
+        }
+    }
+
+
+    // Maps the snapshot when it matches the database, rebuilding it first when it does not.
+    // Falls back to reading templates onto the heap if the snapshot cannot be written.
+    private List<GalleryEntry> loadGalleryEntries() {
+        synchronized (writeLock) {
+            long[] state = readGalleryState();
+            try {
+                GallerySnapshot snapshot = GallerySnapshot.open(snapshotFile);
+                if (snapshot.size() == state[0] && snapshot.getLastRowId() == state[1]) {
+                    return snapshot.getEntries();
+                }
+                Log.d("DB", " Gallery snapshot is stale, rebuilding");
+            } catch (FileNotFoundException e) {
+                Log.d("DB", " No gallery snapshot, building");
+            } catch (IOException e) {
+                Log.e("DB", "Gallery snapshot unusable, rebuilding", e);
+            }
+
+            try {
+                writeSnapshot();
+                return GallerySnapshot.open(snapshotFile).getEntries();
+            } catch (Exception e) {
+                Log.e("DB", "Error building gallery snapshot", e);
+                snapshotFile.delete();
+                return getAllTemplates();
+            }
+        }
+    }
+
+
+    // {row count, last row id}
+    private long[] readGalleryState() {
+        Cursor cursor = null;
+        try {
+            cursor = database().rawQuery("SELECT COUNT(*), IFNULL(MAX(" + COL_ID + "), -1) FROM " +
+                    TABLE_FINGERPRINTS, null);
+            if (cursor.moveToFirst()) {
+                return new long[]{cursor.getLong(0), cursor.getLong(1)};
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return new long[]{0, -1};
+    }
+
+
+    private void writeSnapshot() throws IOException {
+        Cursor cursor = null;
+        GallerySnapshot.Writer writer = new GallerySnapshot.Writer(snapshotFile);
+        try {
+            cursor = database().query(TABLE_FINGERPRINTS,
+                    new String[]{COL_ID, COL_USER_ID, COL_TEMPLATE, COL_QUALITY, COL_NFIQ},
+                    null, null, null, null, COL_ID + " ASC");
+
+            long lastRowId = -1;
+            while (cursor.moveToNext()) {
+                lastRowId = cursor.getLong(0);
+                writer.add(cursor.getString(1), cursor.getBlob(2), cursor.getInt(3), cursor.getInt(4));
+            }
+            writer.commit(lastRowId);
+            Log.d("DB", " Gallery snapshot written: " + cursor.getCount() + " templates");
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            writer.close();
+        }
+    }
+
+
+    public List<GalleryEntry> getAllTemplates() {
+        List<GalleryEntry> entries = new ArrayList<>();
+        Cursor cursor = null;
+
+        try {
+            SQLiteDatabase db = database();
+            cursor = db.rawQuery(SELECT_ALL_TEMPLATES, null);
+
+            while (cursor.moveToNext()) {
+                entries.add(new GalleryEntry(cursor.getString(0), cursor.getBlob(1),
+                        cursor.getInt(2), cursor.getInt(3)));
+            }
+        } catch (Exception e) {
+            Log.e("DB", "Error loading templates", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return entries;
+    }
+
+
     public byte[] getTemplateByUserId(String userId) {
-        SQLiteDatabase db = this.getReadableDatabase();
+        SQLiteDatabase db = database();
         byte[] template = null;
         Cursor cursor = null;
 
         try {
 
-            String query = "SELECT " + COL_TEMPLATE + " FROM " + TABLE_FINGERPRINTS + " WHERE " + COL_USER_ID + " = ?";
-            cursor = db.rawQuery(query, new String[]{userId});
+            cursor = db.rawQuery(SELECT_TEMPLATE_BY_USER_ID, new String[]{userId});
 
             if (cursor != null && cursor.moveToFirst()) {
                 template = cursor.getBlob(0);
@@ -127,34 +474,61 @@ public class FingerprintDatabaseHelper extends SQLiteOpenHelper {
             if (cursor != null) {
                 cursor.close();
             }
-            db.close();
         }
         return template;
     }
 
 
-    public int getTotalFingerprints() {
+    // Bytes as archived at enrollment: BMP, PNG, zlib-deflated BMP or WSQ; see ImageArchiver.detect.
+    public byte[] getImageByUserId(String userId) {
+        SQLiteDatabase db = database();
+        byte[] image = null;
+        Cursor cursor = null;
+
         try {
-            SQLiteDatabase db = this.getReadableDatabase();
-            Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_FINGERPRINTS, null);
-            cursor.moveToFirst();
-            int count = cursor.getInt(0);
-            cursor.close();
-            db.close();
-            return count;
+
+            String query = "SELECT " + COL_IMAGE + " FROM " + TABLE_IMAGES + " WHERE " + COL_USER_ID + " = ?";
+            cursor = db.rawQuery(query, new String[]{userId});
+
+            if (cursor != null && cursor.moveToFirst()) {
+                image = cursor.getBlob(0);
+            }
         } catch (Exception e) {
-            Log.e("DB", "Error getting count", e);
-            return 0;
+            Log.e("DB", "Error fetching image for user: " + userId, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
+        return image;
+    }
+
+
+    public int getTotalFingerprints() {
+        return getGallery().size();
     }
 
 
 
     public boolean deleteAll() {
         try {
-            SQLiteDatabase db = this.getWritableDatabase();
-            db.delete(TABLE_FINGERPRINTS, null, null);
-            db.close();
+            SQLiteDatabase db = database();
+            synchronized (writeLock) {
+                db.beginTransaction();
+                try {
+                    db.delete(TABLE_FINGERPRINTS, null, null);
+                    db.delete(TABLE_IMAGES, null, null);
+                    db.delete(TABLE_HIT_STATISTICS, null, null);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            synchronized (writeLock) {
+                snapshotFile.delete();
+            }
+            gallery.clear();
+            hitStatistics.clear();
             Log.d("DB", " All fingerprints deleted");
             return true;
         } catch (Exception e) {
@@ -0,0 +1,63 @@
+package com.mantra.morfinauthdemo;
+
+// Table layout and statements of the fingerprint database. Kept free of android.database so the
+// benchmark module replays exactly what FingerprintDatabaseHelper runs.
+final class FingerprintSchema {
+
+    static final String TABLE_FINGERPRINTS = "fingerprints";
+    static final String TABLE_IMAGES = "fingerprint_images";
+    static final String TABLE_HIT_STATISTICS = "hit_statistics";
+
+    static final String COL_ID = "id";
+    static final String COL_USER_ID = "user_id";
+    static final String COL_IMAGE = "image";
+    static final String COL_TEMPLATE = "template";
+    static final String COL_QUALITY = "quality";
+    static final String COL_NFIQ = "nfiq";
+    static final String COL_CREATED_AT = "created_at";
+    static final String COL_HIT_SCORE = "hit_score";
+    static final String COL_UPDATED_AT = "updated_at";
+
+    // Negative cache_size is in KiB: 4 MB of page cache per connection.
+    static final int PAGE_CACHE_KIB = 4096;
+    static final String PRAGMA_CACHE_SIZE = "PRAGMA cache_size = -" + PAGE_CACHE_KIB;
+    static final String PRAGMA_TEMP_STORE = "PRAGMA temp_store = MEMORY";
+
+    static final String INSERT_TEMPLATE = "INSERT INTO " + TABLE_FINGERPRINTS + " (" + COL_USER_ID + ", " +
+            COL_TEMPLATE + ", " + COL_QUALITY + ", " + COL_NFIQ + ") VALUES (?, ?, ?, ?)";
+    static final String INSERT_IMAGE = "INSERT INTO " + TABLE_IMAGES + " (" + COL_USER_ID + ", " + COL_IMAGE +
+            ") VALUES (?, ?)";
+    static final String UPSERT_HIT = "INSERT OR REPLACE INTO " + TABLE_HIT_STATISTICS + " (" + COL_USER_ID + ", " +
+            COL_HIT_SCORE + ", " + COL_UPDATED_AT + ") VALUES (?, ?, ?)";
+    static final String SELECT_TEMPLATE_BY_USER_ID = "SELECT " + COL_TEMPLATE + " FROM " + TABLE_FINGERPRINTS +
+            " WHERE " + COL_USER_ID + " = ?";
+    static final String SELECT_ALL_TEMPLATES = "SELECT " + COL_USER_ID + ", " + COL_TEMPLATE + ", " + COL_QUALITY +
+            ", " + COL_NFIQ + " FROM " + TABLE_FINGERPRINTS + " ORDER BY " + COL_CREATED_AT + " DESC";
+
+    private FingerprintSchema() {
+    }
+
+    // Templates stay in a narrow table so gallery scans never page in image data.
+    static String createFingerprintsTable(String tableName) {
+        return "CREATE TABLE " + tableName + " (" +
+                COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COL_USER_ID + " TEXT UNIQUE NOT NULL, " +
+                COL_TEMPLATE + " BLOB NOT NULL, " +
+                COL_QUALITY + " INTEGER, " +
+                COL_NFIQ + " INTEGER, " +
+                COL_CREATED_AT + " DATETIME DEFAULT CURRENT_TIMESTAMP)";
+    }
+
+    static String createImagesTable() {
+        return "CREATE TABLE " + TABLE_IMAGES + " (" +
+                COL_USER_ID + " TEXT PRIMARY KEY NOT NULL, " +
+                COL_IMAGE + " BLOB NOT NULL)";
+    }
+
+    static String createHitStatisticsTable() {
+        return "CREATE TABLE " + TABLE_HIT_STATISTICS + " (" +
+                COL_USER_ID + " TEXT PRIMARY KEY NOT NULL, " +
+                COL_HIT_SCORE + " REAL NOT NULL, " +
+                COL_UPDATED_AT + " INTEGER NOT NULL)";
+    }
+}
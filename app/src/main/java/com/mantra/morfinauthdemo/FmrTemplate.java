@@ -0,0 +1,97 @@
+package com.mantra.morfinauthdemo;
+
+import java.util.Arrays;
+
+// ISO/IEC 19794-2:2011 finger minutiae record decoded into parallel primitive arrays.
+// Instances are reusable: FmrTemplateParser.parseInto() only grows the arrays when needed.
+public class FmrTemplate {
+
+    public static final int TYPE_OTHER = 0;
+    public static final int TYPE_RIDGE_ENDING = 1;
+    public static final int TYPE_BIFURCATION = 2;
+
+    public static final int QUALITY_NOT_REPORTED = 255;
+
+    public int version;
+    public int recordLength;
+    public boolean deviceCertified;
+
+    public int viewCount;
+    public byte[] viewFingerPosition = new byte[1];
+    public byte[] viewRepresentationNumber = new byte[1];
+    public byte[] viewImpressionType = new byte[1];
+    public byte[] viewQuality = new byte[1];
+    public short[] viewWidth = new short[1];
+    public short[] viewHeight = new short[1];
+    public short[] viewResolutionX = new short[1];
+    public short[] viewResolutionY = new short[1];
+    public int[] viewMinutiaStart = new int[1];
+    public int[] viewMinutiaCount = new int[1];
+
+    public int minutiaCount;
+    public short[] minutiaX = new short[64];
+    public short[] minutiaY = new short[64];
+    public byte[] minutiaAngle = new byte[64];
+    public byte[] minutiaType = new byte[64];
+    public byte[] minutiaQuality = new byte[64];
+
+    public int angleUnits(int index) {
+        return minutiaAngle[index] & 0xFF;
+    }
+
+    public double angleDegrees(int index) {
+        return angleUnits(index) * 360.0 / 256.0;
+    }
+
+    public int quality(int index) {
+        return minutiaQuality[index] & 0xFF;
+    }
+
+    public int viewQuality(int view) {
+        return viewQuality[view] & 0xFF;
+    }
+
+    public int width(int view) {
+        return viewWidth[view] & 0xFFFF;
+    }
+
+    public int height(int view) {
+        return viewHeight[view] & 0xFFFF;
+    }
+
+    void clear() {
+        version = 0;
+        recordLength = 0;
+        deviceCertified = false;
+        viewCount = 0;
+        minutiaCount = 0;
+    }
+
+    void ensureViewCapacity(int views) {
+        if (viewFingerPosition.length >= views) {
+            return;
+        }
+        viewFingerPosition = Arrays.copyOf(viewFingerPosition, views);
+        viewRepresentationNumber = Arrays.copyOf(viewRepresentationNumber, views);
+        viewImpressionType = Arrays.copyOf(viewImpressionType, views);
+        viewQuality = Arrays.copyOf(viewQuality, views);
+        viewWidth = Arrays.copyOf(viewWidth, views);
+        viewHeight = Arrays.copyOf(viewHeight, views);
+        viewResolutionX = Arrays.copyOf(viewResolutionX, views);
+        viewResolutionY = Arrays.copyOf(viewResolutionY, views);
+        viewMinutiaStart = Arrays.copyOf(viewMinutiaStart, views);
+        viewMinutiaCount = Arrays.copyOf(viewMinutiaCount, views);
+    }
+
+    void ensureMinutiaCapacity(int minutiae) {
+        if (minutiaX.length >= minutiae) {
+            return;
+        }
+        int capacity = Math.max(minutiae, minutiaX.length * 2);
+        minutiaX = Arrays.copyOf(minutiaX, capacity);
+        minutiaY = Arrays.copyOf(minutiaY, capacity);
+        minutiaAngle = Arrays.copyOf(minutiaAngle, capacity);
+        minutiaType = Arrays.copyOf(minutiaType, capacity);
+        minutiaQuality = Arrays.copyOf(minutiaQuality, capacity);
+    }
+}
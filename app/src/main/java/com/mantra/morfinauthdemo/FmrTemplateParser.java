@@ -0,0 +1,158 @@
+package com.mantra.morfinauthdemo;
+
+import java.nio.ByteBuffer;
+
+public final class FmrTemplateParser {
+
+    private static final int GENERAL_HEADER_LENGTH = 15;
+    private static final int VERSION_2011 = 30;
+
+    private static final int CAPTURE_DATE_TIME_LENGTH = 9;
+    private static final int QUALITY_BLOCK_LENGTH = 5;
+    private static final int CERTIFICATION_BLOCK_LENGTH = 3;
+
+    private FmrTemplateParser() {
+    }
+
+    public static FmrTemplate parse(byte[] data) {
+        FmrTemplate template = new FmrTemplate();
+        parseInto(data, 0, data.length, template);
+        return template;
+    }
+
+    public static void parseInto(byte[] data, int offset, int length, FmrTemplate target) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IllegalArgumentException("Invalid template bounds");
+        }
+        parseRecord(data, null, offset, length, target);
+    }
+
+    // Parses in place; the buffer's position and limit are not touched, so one mapping can be shared by threads.
+    public static void parseInto(ByteBuffer data, int offset, int length, FmrTemplate target) {
+        if (offset < 0 || length < 0 || offset + length > data.capacity()) {
+            throw new IllegalArgumentException("Invalid template bounds");
+        }
+        parseRecord(null, data, offset, length, target);
+    }
+
+    // Exactly one of array and buffer is non-null; buffers are only read with absolute gets.
+    private static void parseRecord(byte[] array, ByteBuffer buffer, int offset, int length, FmrTemplate target) {
+        target.clear();
+
+        require(length >= GENERAL_HEADER_LENGTH, "Template shorter than FMR header");
+        if (get(array, buffer, offset) != 'F' || get(array, buffer, offset + 1) != 'M' ||
+                get(array, buffer, offset + 2) != 'R' || get(array, buffer, offset + 3) != 0) {
+            throw new IllegalArgumentException("Missing FMR format identifier");
+        }
+
+        int version = (get(array, buffer, offset + 4) - '0') * 100 + (get(array, buffer, offset + 5) - '0') * 10 +
+                (get(array, buffer, offset + 6) - '0');
+        if (version != VERSION_2011 || get(array, buffer, offset + 7) != 0) {
+            throw new IllegalArgumentException("Unsupported FMR version " + version);
+        }
+
+        int recordLength = readInt(array, buffer, offset + 8);
+        require(recordLength >= GENERAL_HEADER_LENGTH && recordLength <= length,
+                "Record length " + recordLength + " does not fit " + length + " bytes");
+        int end = offset + recordLength;
+
+        int views = readShort(array, buffer, offset + 12);
+        boolean certified = get(array, buffer, offset + 14) != 0;
+
+        target.version = version;
+        target.recordLength = recordLength;
+        target.deviceCertified = certified;
+        target.ensureViewCapacity(Math.max(1, views));
+
+        int pos = offset + GENERAL_HEADER_LENGTH;
+        for (int view = 0; view < views; view++) {
+            pos = parseRepresentation(array, buffer, pos, end, certified, view, target);
+        }
+        target.viewCount = views;
+    }
+
+    private static int parseRepresentation(byte[] array, ByteBuffer buffer, int start, int end, boolean certified,
+                                           int view, FmrTemplate target) {
+        require(start + 4 <= end, "Truncated representation header");
+        int representationLength = readInt(array, buffer, start);
+        int representationEnd = start + representationLength;
+        require(representationLength > 0 && representationEnd <= end, "Invalid representation length");
+
+        int pos = start + 4 + CAPTURE_DATE_TIME_LENGTH + 1 + 2 + 2;
+        require(pos + 1 <= representationEnd, "Truncated capture device block");
+
+        int qualityBlocks = get(array, buffer, pos++) & 0xFF;
+        int viewQuality = FmrTemplate.QUALITY_NOT_REPORTED;
+        require(pos + qualityBlocks * QUALITY_BLOCK_LENGTH <= representationEnd, "Truncated quality blocks");
+        if (qualityBlocks > 0) {
+            viewQuality = get(array, buffer, pos) & 0xFF;
+        }
+        pos += qualityBlocks * QUALITY_BLOCK_LENGTH;
+
+        if (certified) {
+            require(pos + 1 <= representationEnd, "Truncated certification blocks");
+            int certificationBlocks = get(array, buffer, pos++) & 0xFF;
+            pos += certificationBlocks * CERTIFICATION_BLOCK_LENGTH;
+        }
+
+        require(pos + 13 <= representationEnd, "Truncated finger view header");
+        target.viewFingerPosition[view] = get(array, buffer, pos);
+        target.viewRepresentationNumber[view] = get(array, buffer, pos + 1);
+        target.viewResolutionX[view] = (short) readShort(array, buffer, pos + 2);
+        target.viewResolutionY[view] = (short) readShort(array, buffer, pos + 4);
+        target.viewImpressionType[view] = get(array, buffer, pos + 6);
+        target.viewWidth[view] = (short) readShort(array, buffer, pos + 7);
+        target.viewHeight[view] = (short) readShort(array, buffer, pos + 9);
+        target.viewQuality[view] = (byte) viewQuality;
+
+        int minutiaFieldLength = (get(array, buffer, pos + 11) >> 4) & 0x0F;
+        int minutiae = get(array, buffer, pos + 12) & 0xFF;
+        pos += 13;
+
+        require(minutiaFieldLength == 5 || minutiaFieldLength == 6,
+                "Unsupported minutia field length " + minutiaFieldLength);
+        require(pos + minutiae * minutiaFieldLength <= representationEnd, "Truncated minutiae");
+
+        int first = target.minutiaCount;
+        target.ensureMinutiaCapacity(first + minutiae);
+        for (int i = 0; i < minutiae; i++) {
+            int m = first + i;
+            int xField = readShort(array, buffer, pos);
+            int yField = readShort(array, buffer, pos + 2);
+            target.minutiaType[m] = (byte) (xField >> 14);
+            target.minutiaX[m] = (short) (xField & 0x3FFF);
+            target.minutiaY[m] = (short) (yField & 0x3FFF);
+            target.minutiaAngle[m] = get(array, buffer, pos + 4);
+            target.minutiaQuality[m] = minutiaFieldLength == 6
+                    ? get(array, buffer, pos + 5)
+                    : (byte) FmrTemplate.QUALITY_NOT_REPORTED;
+            pos += minutiaFieldLength;
+        }
+
+        target.viewMinutiaStart[view] = first;
+        target.viewMinutiaCount[view] = minutiae;
+        target.minutiaCount = first + minutiae;
+
+        // Extended data blocks (ridge counts, cores, deltas) are skipped via the representation length.
+        return representationEnd;
+    }
+
+    private static void require(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    private static byte get(byte[] array, ByteBuffer buffer, int offset) {
+        return array != null ? array[offset] : buffer.get(offset);
+    }
+
+    private static int readShort(byte[] array, ByteBuffer buffer, int offset) {
+        return (get(array, buffer, offset) & 0xFF) << 8 | (get(array, buffer, offset + 1) & 0xFF);
+    }
+
+    private static int readInt(byte[] array, ByteBuffer buffer, int offset) {
+        return (get(array, buffer, offset) & 0xFF) << 24 | (get(array, buffer, offset + 1) & 0xFF) << 16 |
+                (get(array, buffer, offset + 2) & 0xFF) << 8 | (get(array, buffer, offset + 3) & 0xFF);
+    }
+}
@@ -0,0 +1,99 @@
+package com.mantra.morfinauthdemo;
+
+import java.nio.ByteBuffer;
+
+public class GalleryEntry {
+
+    // matchWith() result for a mapped template whose bytes no longer match the snapshot checksum.
+    public static final int ERROR_CORRUPT_TEMPLATE = -9100;
+
+    public final String userId;
+    public final int quality;
+    public final int nfiq;
+    public final byte[] features;
+
+    // Backed either by a heap array or by a slice of a mapped gallery snapshot.
+    private final byte[] template;
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+
+    // Mapped entries only: the checksum from the snapshot index, checked on first use.
+    private final int templateCrc;
+    private volatile Boolean intact;
+
+    public GalleryEntry(String userId, byte[] template) {
+        this(userId, template, 0, 0);
+    }
+
+    public GalleryEntry(String userId, byte[] template, int quality, int nfiq) {
+        this.userId = userId;
+        this.template = template;
+        this.buffer = null;
+        this.offset = 0;
+        this.length = template.length;
+        this.quality = quality;
+        this.nfiq = nfiq;
+        this.features = TemplateFeatures.extract(template);
+        this.templateCrc = 0;
+        this.intact = Boolean.TRUE;
+    }
+
+    GalleryEntry(String userId, ByteBuffer buffer, int offset, int length, int templateCrc, int quality, int nfiq,
+                 byte[] features) {
+        this.userId = userId;
+        this.template = null;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.templateCrc = templateCrc;
+        this.quality = quality;
+        this.nfiq = nfiq;
+        this.features = features;
+    }
+
+    public boolean isMapped() {
+        return buffer != null;
+    }
+
+    // Heap entries are always intact. A mapped template is checksummed the first time this is called;
+    // concurrent first calls may both compute it, which is harmless.
+    public boolean isIntact() {
+        Boolean checked = intact;
+        if (checked == null) {
+            checked = GallerySnapshot.crc(buffer, offset, length, new byte[Math.min(length, 8192)]) == templateCrc;
+            intact = checked;
+        }
+        return checked;
+    }
+
+    public int getTemplateLength() {
+        return length;
+    }
+
+    // Heap-backed entries return their array; mapped entries return a fresh copy.
+    public byte[] getTemplate() {
+        if (template != null) {
+            return template;
+        }
+        byte[] copy = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(copy);
+        return copy;
+    }
+
+    // Scores mapped templates in place when the matcher supports it; otherwise they are copied first.
+    public int matchWith(TemplateMatcher matcher, byte[] probeTemplate, int[] score) {
+        if (template != null) {
+            return matcher.match(probeTemplate, template, score);
+        }
+        if (!isIntact()) {
+            return ERROR_CORRUPT_TEMPLATE;
+        }
+        if (matcher instanceof BufferTemplateMatcher) {
+            return ((BufferTemplateMatcher) matcher).match(probeTemplate, buffer, offset, length, score);
+        }
+        return matcher.match(probeTemplate, getTemplate(), score);
+    }
+}
@@ -0,0 +1,309 @@
+package com.mantra.morfinauthdemo;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Read-only copy of the enrolled templates that is mapped instead of loaded. SQLite stays the source
+// of truth; the header records the row count and last row id so a stale snapshot is detected and rebuilt.
+//
+// Layout (big-endian): header, packed FMR templates in enrollment order, then a fixed-size index.
+// Appends overwrite the old index with new templates, write the grown index after them and only then
+// rewrite the header, so an interrupted append fails the index checksum instead of returning bad data.
+// open() checks the header and index only; each template is checked against its index checksum on
+// first use (GalleryEntry.isIntact()), so opening does not read every template page.
+public class GallerySnapshot {
+
+    private static final int MAGIC = 0x46475331; // "FGS1"
+    private static final int VERSION = 1;
+
+    static final int HEADER_LENGTH = 32;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_COUNT = 8;
+    private static final int HEADER_INDEX_OFFSET = 12;
+    private static final int HEADER_LAST_ROW_ID = 20;
+    private static final int HEADER_INDEX_CRC = 28;
+
+    static final int INDEX_ENTRY_LENGTH = 80;
+    private static final int MAX_USER_ID_BYTES = 31;
+    private static final int ENTRY_TEMPLATE_OFFSET = 32;
+    private static final int ENTRY_TEMPLATE_LENGTH = 36;
+    private static final int ENTRY_QUALITY = 40;
+    private static final int ENTRY_NFIQ = 42;
+    private static final int ENTRY_TEMPLATE_CRC = 44;
+    private static final int ENTRY_HAS_FEATURES = 48;
+    private static final int ENTRY_FEATURES = 49;
+
+    private static final int CRC_CHUNK = 8192;
+
+    private final List<GalleryEntry> entries;
+    private final long lastRowId;
+
+    private GallerySnapshot(List<GalleryEntry> entries, long lastRowId) {
+        this.entries = entries;
+        this.lastRowId = lastRowId;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getLastRowId() {
+        return lastRowId;
+    }
+
+    // Newest first, like the gallery. Templates stay in the mapping; only the index is read onto the heap.
+    public List<GalleryEntry> getEntries() {
+        return entries;
+    }
+
+    public static GallerySnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid gallery snapshot size " + size);
+            }
+
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt(HEADER_MAGIC) != MAGIC || map.getInt(HEADER_VERSION) != VERSION) {
+                throw new IOException("Not a gallery snapshot");
+            }
+
+            int count = map.getInt(HEADER_COUNT);
+            long indexOffset = map.getLong(HEADER_INDEX_OFFSET);
+            if (count < 0 || indexOffset < HEADER_LENGTH ||
+                    indexOffset + (long) count * INDEX_ENTRY_LENGTH != size) {
+                throw new IOException("Corrupt gallery snapshot header");
+            }
+
+            byte[] scratch = new byte[CRC_CHUNK];
+            int index = (int) indexOffset;
+            if (crc(map, index, count * INDEX_ENTRY_LENGTH, scratch) != map.getInt(HEADER_INDEX_CRC)) {
+                throw new IOException("Gallery snapshot index checksum mismatch");
+            }
+
+            GalleryEntry[] entries = new GalleryEntry[count];
+            for (int i = 0; i < count; i++) {
+                int entry = index + i * INDEX_ENTRY_LENGTH;
+                int templateOffset = map.getInt(entry + ENTRY_TEMPLATE_OFFSET);
+                int templateLength = map.getInt(entry + ENTRY_TEMPLATE_LENGTH);
+                if (templateOffset < HEADER_LENGTH || templateLength <= 0 ||
+                        (long) templateOffset + templateLength > indexOffset) {
+                    throw new IOException("Corrupt gallery snapshot entry " + i);
+                }
+
+                int userIdLength = map.get(entry) & 0xFF;
+                byte[] userId = new byte[Math.min(userIdLength, MAX_USER_ID_BYTES)];
+                for (int b = 0; b < userId.length; b++) {
+                    userId[b] = map.get(entry + 1 + b);
+                }
+
+                byte[] features = null;
+                if (map.get(entry + ENTRY_HAS_FEATURES) != 0) {
+                    features = new byte[TemplateFeatures.LENGTH];
+                    for (int b = 0; b < features.length; b++) {
+                        features[b] = map.get(entry + ENTRY_FEATURES + b);
+                    }
+                }
+
+                entries[count - 1 - i] = new GalleryEntry(new String(userId, StandardCharsets.UTF_8), map,
+                        templateOffset, templateLength, map.getInt(entry + ENTRY_TEMPLATE_CRC),
+                        map.getShort(entry + ENTRY_QUALITY), map.getShort(entry + ENTRY_NFIQ), features);
+            }
+
+            List<GalleryEntry> newestFirst = new ArrayList<>(count);
+            Collections.addAll(newestFirst, entries);
+            return new GallerySnapshot(Collections.unmodifiableList(newestFirst), map.getLong(HEADER_LAST_ROW_ID));
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Adds freshly enrolled entries, oldest first, without rewriting the existing templates.
+    public static void append(File file, List<GalleryEntry> oldestFirst, long lastRowId) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            byte[] header = new byte[HEADER_LENGTH];
+            raf.readFully(header);
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+            if (headerBuffer.getInt(HEADER_MAGIC) != MAGIC || headerBuffer.getInt(HEADER_VERSION) != VERSION) {
+                throw new IOException("Not a gallery snapshot");
+            }
+
+            int count = headerBuffer.getInt(HEADER_COUNT);
+            long indexOffset = headerBuffer.getLong(HEADER_INDEX_OFFSET);
+            if (count < 0 || indexOffset + (long) count * INDEX_ENTRY_LENGTH != raf.length()) {
+                throw new IOException("Corrupt gallery snapshot header");
+            }
+
+            byte[] index = new byte[(count + oldestFirst.size()) * INDEX_ENTRY_LENGTH];
+            raf.seek(indexOffset);
+            raf.readFully(index, 0, count * INDEX_ENTRY_LENGTH);
+
+            long position = indexOffset;
+            raf.seek(position);
+            for (int i = 0; i < oldestFirst.size(); i++) {
+                GalleryEntry entry = oldestFirst.get(i);
+                byte[] template = entry.getTemplate();
+                raf.write(template);
+                writeIndexEntry(index, (count + i) * INDEX_ENTRY_LENGTH, entry, position, template);
+                position += template.length;
+            }
+            raf.write(index);
+            raf.setLength(position + index.length);
+            raf.getFD().sync();
+
+            writeHeader(headerBuffer, count + oldestFirst.size(), position, lastRowId, crc(index));
+            raf.seek(0);
+            raf.write(header);
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Streams a full rebuild into a temporary file that replaces the snapshot on commit().
+    public static class Writer implements Closeable {
+
+        private final File file;
+        private final File temp;
+        private final BufferedOutputStream out;
+        private final FileOutputStream fileOut;
+        private byte[] index = new byte[64 * INDEX_ENTRY_LENGTH];
+        private int count;
+        private long position = HEADER_LENGTH;
+        private boolean committed;
+
+        public Writer(File file) throws IOException {
+            this.file = file;
+            this.temp = new File(file.getPath() + ".tmp");
+            this.fileOut = new FileOutputStream(temp);
+            this.out = new BufferedOutputStream(fileOut, 64 * 1024);
+            out.write(new byte[HEADER_LENGTH]);
+        }
+
+        public void add(String userId, byte[] template, int quality, int nfiq) throws IOException {
+            add(new GalleryEntry(userId, template, quality, nfiq));
+        }
+
+        public void add(GalleryEntry entry) throws IOException {
+            byte[] template = entry.getTemplate();
+            if ((count + 1) * INDEX_ENTRY_LENGTH > index.length) {
+                byte[] grown = new byte[index.length * 2];
+                System.arraycopy(index, 0, grown, 0, count * INDEX_ENTRY_LENGTH);
+                index = grown;
+            }
+            out.write(template);
+            writeIndexEntry(index, count * INDEX_ENTRY_LENGTH, entry, position, template);
+            position += template.length;
+            count++;
+        }
+
+        public void commit(long lastRowId) throws IOException {
+            int indexLength = count * INDEX_ENTRY_LENGTH;
+            out.write(index, 0, indexLength);
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+
+            CRC32 crc = new CRC32();
+            crc.update(index, 0, indexLength);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            writeHeader(header, count, position, lastRowId, (int) crc.getValue());
+
+            RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+            try {
+                raf.write(header.array());
+                raf.getFD().sync();
+            } finally {
+                raf.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                temp.delete();
+            }
+        }
+    }
+
+    private static void writeHeader(ByteBuffer header, int count, long indexOffset, long lastRowId, int indexCrc) {
+        header.putInt(HEADER_MAGIC, MAGIC);
+        header.putInt(HEADER_VERSION, VERSION);
+        header.putInt(HEADER_COUNT, count);
+        header.putLong(HEADER_INDEX_OFFSET, indexOffset);
+        header.putLong(HEADER_LAST_ROW_ID, lastRowId);
+        header.putInt(HEADER_INDEX_CRC, indexCrc);
+    }
+
+    private static void writeIndexEntry(byte[] index, int at, GalleryEntry entry, long templateOffset,
+                                        byte[] template) throws IOException {
+        byte[] userId = entry.userId.getBytes(StandardCharsets.UTF_8);
+        if (userId.length > MAX_USER_ID_BYTES) {
+            throw new IOException("User id too long for gallery snapshot: " + entry.userId);
+        }
+        if (templateOffset + template.length > Integer.MAX_VALUE) {
+            throw new IOException("Gallery snapshot exceeds 2 GB");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(index, at, INDEX_ENTRY_LENGTH).slice();
+        buffer.put(0, (byte) userId.length);
+        for (int i = 0; i < userId.length; i++) {
+            buffer.put(1 + i, userId[i]);
+        }
+        buffer.putInt(ENTRY_TEMPLATE_OFFSET, (int) templateOffset);
+        buffer.putInt(ENTRY_TEMPLATE_LENGTH, template.length);
+        buffer.putShort(ENTRY_QUALITY, (short) entry.quality);
+        buffer.putShort(ENTRY_NFIQ, (short) entry.nfiq);
+        buffer.putInt(ENTRY_TEMPLATE_CRC, crc(template));
+        if (entry.features != null) {
+            buffer.put(ENTRY_HAS_FEATURES, (byte) 1);
+            for (int i = 0; i < TemplateFeatures.LENGTH; i++) {
+                buffer.put(ENTRY_FEATURES + i, entry.features[i]);
+            }
+        }
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    // CRC32.update(ByteBuffer) needs API 26, so mapped bytes go through a small reused array.
+    static int crc(ByteBuffer buffer, int offset, int length, byte[] scratch) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        int remaining = length;
+        while (remaining > 0) {
+            int chunk = Math.min(remaining, scratch.length);
+            view.get(scratch, 0, chunk);
+            crc.update(scratch, 0, chunk);
+            remaining -= chunk;
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,8 @@
+package com.mantra.morfinauthdemo;
+
+import java.util.List;
+
+public interface GallerySource {
+
+    List<GalleryEntry> getEntries();
+}
@@ -0,0 +1,213 @@
+package com.mantra.morfinauthdemo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Exponentially decayed match counts per user. Every score decays at the same rate, so the ranking
+// only changes when a hit is recorded. A hit only ever raises its user's rank, so the hot set is
+// updated in place from that one record; only load() and remove() re-rank every record.
+public class HitStatistics {
+
+    public static final long DEFAULT_HALF_LIFE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    public static final int DEFAULT_HOT_SET_SIZE = 64;
+
+    // A user stays hot until their decayed score drops below roughly one hit from a half-life ago.
+    private static final double MIN_HOT_SCORE = 0.5;
+
+    private final long halfLifeMillis;
+    private final int hotSetSize;
+
+    private final Map<String, Record> records = new HashMap<>();
+    private final Map<String, Record> dirty = new HashMap<>();
+    private volatile Record[] hot = new Record[0];
+
+    public HitStatistics() {
+        this(DEFAULT_HALF_LIFE_MILLIS, DEFAULT_HOT_SET_SIZE);
+    }
+
+    public HitStatistics(long halfLifeMillis, int hotSetSize) {
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("halfLifeMillis must be positive");
+        }
+        this.halfLifeMillis = halfLifeMillis;
+        this.hotSetSize = Math.max(0, hotSetSize);
+    }
+
+    // Restores persisted records without marking them dirty. Hits recorded in memory win.
+    public synchronized void load(List<Record> persisted) {
+        for (Record record : persisted) {
+            if (!records.containsKey(record.userId)) {
+                records.put(record.userId, record);
+            }
+        }
+        rebuildHotSet();
+    }
+
+    public synchronized void recordHit(String userId, long nowMillis) {
+        Record previous = records.get(userId);
+        double score = previous != null ? previous.scoreAt(nowMillis, halfLifeMillis) + 1 : 1;
+        Record record = new Record(userId, score, nowMillis);
+        records.put(userId, record);
+        dirty.put(userId, record);
+        promote(previous, record);
+    }
+
+    public synchronized void remove(String userId) {
+        records.remove(userId);
+        dirty.remove(userId);
+        rebuildHotSet();
+    }
+
+    public synchronized void clear() {
+        records.clear();
+        dirty.clear();
+        hot = new Record[0];
+    }
+
+    public synchronized int size() {
+        return records.size();
+    }
+
+    public synchronized double score(String userId, long nowMillis) {
+        Record record = records.get(userId);
+        return record != null ? record.scoreAt(nowMillis, halfLifeMillis) : 0;
+    }
+
+    // Forgets users whose decayed score has fallen below the hot threshold and returns their ids, for
+    // the caller to delete from storage. They would never be hot again without a new hit.
+    public synchronized List<String> pruneCold(long nowMillis) {
+        List<String> pruned = new ArrayList<>();
+        Iterator<Record> it = records.values().iterator();
+        while (it.hasNext()) {
+            Record record = it.next();
+            if (record.scoreAt(nowMillis, halfLifeMillis) < MIN_HOT_SCORE) {
+                it.remove();
+                dirty.remove(record.userId);
+                pruned.add(record.userId);
+            }
+        }
+        if (!pruned.isEmpty()) {
+            rebuildHotSet();
+        }
+        return pruned;
+    }
+
+    // Records changed since the last call, for the caller to persist.
+    public synchronized List<Record> drainDirty() {
+        List<Record> changed = new ArrayList<>(dirty.values());
+        dirty.clear();
+        return changed;
+    }
+
+    // Hottest first. Returns a map of userId to rank, empty when no user is hot.
+    public Map<String, Integer> hotSet(long nowMillis) {
+        Record[] snapshot = hot;
+        Map<String, Integer> ranks = new HashMap<>(snapshot.length * 2);
+        for (Record record : snapshot) {
+            if (record.scoreAt(nowMillis, halfLifeMillis) < MIN_HOT_SCORE) {
+                break;
+            }
+            ranks.put(record.userId, ranks.size());
+        }
+        return ranks;
+    }
+
+    // Moves hot entries to the front of the array in rank order and returns how many were moved.
+    public int moveHotToFront(GalleryEntry[] gallery, long nowMillis) {
+        Map<String, Integer> ranks = hotSet(nowMillis);
+        if (ranks.isEmpty()) {
+            return 0;
+        }
+
+        GalleryEntry[] hotEntries = new GalleryEntry[ranks.size()];
+        int hotCount = 0;
+        int coldCount = 0;
+        for (GalleryEntry entry : gallery) {
+            Integer rank = ranks.get(entry.userId);
+            if (rank != null && hotEntries[rank] == null) {
+                hotEntries[rank] = entry;
+                hotCount++;
+            } else {
+                gallery[coldCount++] = entry;
+            }
+        }
+
+        // Shift the cold entries up and fill the front with the hot ones, skipping ranks not in the gallery.
+        System.arraycopy(gallery, 0, gallery, hotCount, coldCount);
+        int front = 0;
+        for (GalleryEntry entry : hotEntries) {
+            if (entry != null) {
+                gallery[front++] = entry;
+            }
+        }
+        return hotCount;
+    }
+
+    // O(hotSetSize): drops the user's old record from the hot set and inserts the new one by rank.
+    private void promote(Record previous, Record record) {
+        Record[] current = hot;
+        int size = 0;
+        Record[] updated = new Record[Math.min(current.length + 1, hotSetSize)];
+        double key = record.rankKey(halfLifeMillis);
+        boolean placed = false;
+        for (Record r : current) {
+            if (r == previous) {
+                continue;
+            }
+            if (!placed && key > r.rankKey(halfLifeMillis)) {
+                if (size == updated.length) {
+                    break;
+                }
+                updated[size++] = record;
+                placed = true;
+            }
+            if (size == updated.length) {
+                break;
+            }
+            updated[size++] = r;
+        }
+        if (!placed && size < updated.length) {
+            updated[size++] = record;
+        }
+        hot = size == updated.length ? updated : Arrays.copyOf(updated, size);
+    }
+
+    private void rebuildHotSet() {
+        Record[] all = records.values().toArray(new Record[0]);
+        Arrays.sort(all, new Comparator<Record>() {
+            @Override
+            public int compare(Record a, Record b) {
+                return Double.compare(b.rankKey(halfLifeMillis), a.rankKey(halfLifeMillis));
+            }
+        });
+        hot = Arrays.copyOf(all, Math.min(all.length, hotSetSize));
+    }
+
+    public static class Record {
+
+        public final String userId;
+        public final double score;
+        public final long updatedAt;
+
+        public Record(String userId, double score, long updatedAt) {
+            this.userId = userId;
+            this.score = score;
+            this.updatedAt = updatedAt;
+        }
+
+        double scoreAt(long nowMillis, long halfLifeMillis) {
+            long age = Math.max(0, nowMillis - updatedAt);
+            return score * Math.pow(0.5, (double) age / halfLifeMillis);
+        }
+
+        // log2 of the score as of a fixed epoch: orders records the same way at any point in time.
+        double rankKey(long halfLifeMillis) {
+            return Math.log(score) / Math.log(2) + (double) updatedAt / halfLifeMillis;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.mantra.morfinauthdemo;
+
+public interface IdentificationEngine {
+
+    // Stops at the first template scoring at or above the match threshold.
+    IdentificationResult identify(byte[] probeTemplate);
+
+    // Scores the whole gallery and returns the k best candidates; matched when the best reaches the threshold.
+    IdentificationResult identifyTopK(byte[] probeTemplate, int k);
+
+    // Searches in priority order until deadlineNanos (System.nanoTime() based) and returns the best k so far.
+    IdentificationResult identifyBefore(byte[] probeTemplate, int k, long deadlineNanos);
+
+    // Number of identifyBefore() calls that ran out of time before scoring every candidate.
+    long getDeadlineHits();
+
+    void setMatchThreshold(int threshold);
+
+    int getMatchThreshold();
+
+    void shutdown();
+}
@@ -0,0 +1,63 @@
+package com.mantra.morfinauthdemo;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class IdentificationResult {
+
+    public final boolean matched;
+    public final String userId;
+    public final int score;
+    public final int checked;
+
+    // False when the search stopped early: first hit, deadline, or interruption.
+    public final boolean exhaustive;
+
+    // Best first. Only filled by top-K identification; first-hit results leave it empty.
+    public final List<Candidate> candidates;
+
+    public IdentificationResult(boolean matched, String userId, int score, int checked) {
+        this(matched, userId, score, checked, Collections.<Candidate>emptyList(), true);
+    }
+
+    public IdentificationResult(boolean matched, String userId, int score, int checked, List<Candidate> candidates,
+                                boolean exhaustive) {
+        this.matched = matched;
+        this.userId = userId;
+        this.score = score;
+        this.checked = checked;
+        this.candidates = Collections.unmodifiableList(candidates);
+        this.exhaustive = exhaustive;
+    }
+
+    public static IdentificationResult noMatch(int checked) {
+        return noMatch(checked, true);
+    }
+
+    public static IdentificationResult noMatch(int checked, boolean exhaustive) {
+        return new IdentificationResult(false, null, 0, checked, Collections.<Candidate>emptyList(), exhaustive);
+    }
+
+    public static class Candidate {
+
+        // Lower score first; equal scores rank by user id so results do not depend on gallery order.
+        static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                if (a.score != b.score) {
+                    return Integer.compare(a.score, b.score);
+                }
+                return b.userId.compareTo(a.userId);
+            }
+        };
+
+        public final String userId;
+        public final int score;
+
+        public Candidate(String userId, int score) {
+            this.userId = userId;
+            this.score = score;
+        }
+    }
+}
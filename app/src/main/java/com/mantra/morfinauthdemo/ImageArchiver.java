@@ -0,0 +1,272 @@
+package com.mantra.morfinauthdemo;
+
+import com.mantra.morfinauth.enums.ImageFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Encodes captured BMP images for the session folder and the image table, on the archive thread.
+// PNG and zlib are lossless; WSQ is the fingerprint-specific lossy format, encoded by the scanner itself.
+public class ImageArchiver {
+
+    // Capture packs store the ordinal; only ever add formats at the end.
+    public enum Format {
+        BMP("bmp", ImageFormat.BMP),
+        PNG("png", ImageFormat.BMP),
+        DEFLATE("bmp.zlib", ImageFormat.BMP),
+        WSQ("wsq", ImageFormat.WSQ);
+
+        public final String extension;
+        // What to ask GetImage for; only WSQ comes out of the scanner already encoded.
+        public final ImageFormat scannerFormat;
+
+        Format(String extension, ImageFormat scannerFormat) {
+            this.extension = extension;
+            this.scannerFormat = scannerFormat;
+        }
+    }
+
+    // Passed to GetImage as the WSQ compression ratio.
+    public static final int WSQ_COMPRESSION_RATIO = 10;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int BMP_FILE_HEADER_SIZE = 14;
+
+    private final Format format;
+
+    public ImageArchiver(Format format) {
+        this.format = format;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getCompressionRatio() {
+        return format == Format.WSQ ? WSQ_COMPRESSION_RATIO : 1;
+    }
+
+    public String fileName(int fingerNumber) {
+        return "finger_" + fingerNumber + "." + format.extension;
+    }
+
+    // image holds what GetImage returned for format.scannerFormat.
+    public byte[] encode(byte[] image, int length) throws IOException {
+        switch (format) {
+            case PNG:
+                return encodePng(image, length);
+            case DEFLATE:
+                return deflate(image, length);
+            default:
+                byte[] copy = new byte[length];
+                System.arraycopy(image, 0, copy, 0, length);
+                return copy;
+        }
+    }
+
+    // Stored images carry no format column; the leading bytes tell them apart.
+    public static Format detect(byte[] data) {
+        if (data == null || data.length < 2) {
+            return null;
+        }
+        if (data.length >= PNG_SIGNATURE.length && startsWith(data, PNG_SIGNATURE)) {
+            return Format.PNG;
+        }
+        if (data[0] == 'B' && data[1] == 'M') {
+            return Format.BMP;
+        }
+        if ((data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xA0) {
+            return Format.WSQ;
+        }
+        if ((data[0] & 0x0F) == 8 && (((data[0] & 0xFF) << 8) | (data[1] & 0xFF)) % 31 == 0) {
+            return Format.DEFLATE;
+        }
+        return null;
+    }
+
+    private static byte[] deflate(byte[] image, int length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            DeflaterOutputStream zip = new DeflaterOutputStream(out, deflater, 8192);
+            zip.write(image, 0, length);
+            zip.finish();
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    // 8-bit grayscale PNG from an uncompressed 8-bit palettized BMP, one adaptive filter per row.
+    static byte[] encodePng(byte[] bmp, int length) throws IOException {
+        if (length < BMP_FILE_HEADER_SIZE + 40 || bmp[0] != 'B' || bmp[1] != 'M'
+                || readShort(bmp, 28) != 8 || readInt(bmp, 30) != 0) {
+            throw new IOException("Not an uncompressed 8-bit BMP");
+        }
+        int width = readInt(bmp, 18);
+        int rawHeight = readInt(bmp, 22);
+        int height = Math.abs(rawHeight);
+        int pixelOffset = readInt(bmp, 10);
+        int stride = (width + 3) & ~3;
+        if (width <= 0 || height == 0 || pixelOffset + (long) stride * height > length) {
+            throw new IOException("Truncated BMP " + width + "x" + height);
+        }
+        byte[] gray = grayLevels(bmp, pixelOffset);
+
+        ByteArrayOutputStream idat = new ByteArrayOutputStream(width * height / 2);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            DeflaterOutputStream zip = new DeflaterOutputStream(idat, deflater, 8192);
+            byte[] previous = new byte[width];
+            byte[] current = new byte[width];
+            byte[] filtered = new byte[width + 1];
+            for (int row = 0; row < height; row++) {
+                int src = pixelOffset + (rawHeight > 0 ? height - 1 - row : row) * stride;
+                for (int x = 0; x < width; x++) {
+                    current[x] = gray[bmp[src + x] & 0xFF];
+                }
+                filterRow(current, previous, filtered);
+                zip.write(filtered);
+
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            zip.finish();
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream(idat.size() + 64);
+        DataOutputStream out = new DataOutputStream(png);
+        out.write(PNG_SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(width);
+        ihdr.writeInt(height);
+        ihdr.writeByte(8);  // bit depth
+        ihdr.writeByte(0);  // grayscale
+        ihdr.writeByte(0);
+        ihdr.writeByte(0);
+        ihdr.writeByte(0);
+        writeChunk(out, "IHDR", header.toByteArray());
+        writeChunk(out, "IDAT", idat.toByteArray());
+        writeChunk(out, "IEND", new byte[0]);
+        return png.toByteArray();
+    }
+
+    // Picks None, Sub, Up or Paeth by the smallest sum of absolute residuals, the usual PNG heuristic.
+    private static void filterRow(byte[] row, byte[] previous, byte[] out) {
+        int width = row.length;
+        long costNone = 0;
+        long costSub = 0;
+        long costUp = 0;
+        long costPaeth = 0;
+        for (int x = 0; x < width; x++) {
+            int raw = row[x] & 0xFF;
+            int left = x > 0 ? row[x - 1] & 0xFF : 0;
+            int above = previous[x] & 0xFF;
+            int aboveLeft = x > 0 ? previous[x - 1] & 0xFF : 0;
+            costNone += Math.abs((byte) raw);
+            costSub += Math.abs((byte) (raw - left));
+            costUp += Math.abs((byte) (raw - above));
+            costPaeth += Math.abs((byte) (raw - paeth(left, above, aboveLeft)));
+        }
+        int best = 0;
+        long bestCost = costNone;
+        if (costSub < bestCost) {
+            best = 1;
+            bestCost = costSub;
+        }
+        if (costUp < bestCost) {
+            best = 2;
+            bestCost = costUp;
+        }
+        if (costPaeth < bestCost) {
+            best = 4;
+        }
+
+        out[0] = (byte) best;
+        for (int x = 0; x < width; x++) {
+            int raw = row[x] & 0xFF;
+            int left = x > 0 ? row[x - 1] & 0xFF : 0;
+            int above = previous[x] & 0xFF;
+            int aboveLeft = x > 0 ? previous[x - 1] & 0xFF : 0;
+            int predicted;
+            switch (best) {
+                case 1:
+                    predicted = left;
+                    break;
+                case 2:
+                    predicted = above;
+                    break;
+                case 4:
+                    predicted = paeth(left, above, aboveLeft);
+                    break;
+                default:
+                    predicted = 0;
+            }
+            out[x + 1] = (byte) (raw - predicted);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    // Palette index to gray level, using the green channel like PreviewRenderer.
+    private static byte[] grayLevels(byte[] bmp, int pixelOffset) {
+        int paletteOffset = BMP_FILE_HEADER_SIZE + readInt(bmp, 14);
+        int colors = readInt(bmp, 46);
+        if (colors <= 0 || colors > 256) {
+            colors = 256;
+        }
+        byte[] gray = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            int entry = paletteOffset + i * 4;
+            gray[i] = (byte) ((i < colors && entry + 2 < pixelOffset) ? bmp[entry + 1] & 0xFF : i);
+        }
+        return gray;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 |
+                (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,107 @@
+package com.mantra.morfinauthdemo;
+
+import com.mantra.morfinauth.DeviceInfo;
+import com.mantra.morfinauth.enums.DeviceModel;
+import com.mantra.morfinauth.enums.ImageFormat;
+import com.mantra.morfinauth.enums.LogLevel;
+import com.mantra.morfinauth.enums.TemplateFormat;
+
+// Times the capture, extraction and matching calls of another scanner into a MetricsRegistry.
+public class InstrumentedScanner implements Scanner {
+
+    private final Scanner scanner;
+    private final MetricsRegistry metrics;
+    private final LatencyHistogram autoCapture;
+    private final LatencyHistogram getImage;
+    private final LatencyHistogram getTemplate;
+    private final LatencyHistogram matchTemplate;
+
+    public InstrumentedScanner(Scanner scanner, MetricsRegistry metrics) {
+        this.scanner = scanner;
+        this.metrics = metrics;
+        this.autoCapture = metrics.histogram(MetricsRegistry.CAPTURE_AUTO);
+        this.getImage = metrics.histogram(MetricsRegistry.CAPTURE_GET_IMAGE);
+        this.getTemplate = metrics.histogram(MetricsRegistry.CAPTURE_GET_TEMPLATE);
+        this.matchTemplate = metrics.histogram(MetricsRegistry.MATCH_TEMPLATE);
+    }
+
+    @Override
+    public int setLogProperties(String logPath, LogLevel level) {
+        return scanner.setLogProperties(logPath, level);
+    }
+
+    @Override
+    public int init(DeviceModel model, String clientKey, DeviceInfo info) {
+        return scanner.init(model, clientKey, info);
+    }
+
+    @Override
+    public int uninit() {
+        return scanner.uninit();
+    }
+
+    @Override
+    public int startCapture(int minQuality, int timeoutMillis) {
+        return scanner.startCapture(minQuality, timeoutMillis);
+    }
+
+    @Override
+    public int stopCapture() {
+        return scanner.stopCapture();
+    }
+
+    // Only successful captures go into the latency histogram; a timeout would just record the timeout.
+    @Override
+    public int autoCapture(int minQuality, int timeoutMillis, int[] quality, int[] nfiq) {
+        long start = System.nanoTime();
+        int ret = scanner.autoCapture(minQuality, timeoutMillis, quality, nfiq);
+        recordCaptureResult(ret, System.nanoTime() - start);
+        return ret;
+    }
+
+    // For the asynchronous StartCapture path, whose result arrives in OnComplete.
+    public void recordCaptureResult(int ret, long elapsedNanos) {
+        if (ret == SUCCESS) {
+            autoCapture.recordNanos(elapsedNanos);
+            metrics.increment(MetricsRegistry.CAPTURES);
+        } else if (ret == ERROR_TIMEOUT) {
+            metrics.increment(MetricsRegistry.CAPTURE_TIMEOUTS);
+        } else {
+            metrics.increment(MetricsRegistry.CAPTURE_ERRORS);
+        }
+    }
+
+    @Override
+    public int getImage(byte[] image, int[] size, int compressionRatio, ImageFormat format) {
+        long start = System.nanoTime();
+        int ret = scanner.getImage(image, size, compressionRatio, format);
+        getImage.recordNanos(System.nanoTime() - start);
+        return ret;
+    }
+
+    @Override
+    public int getTemplate(byte[] template, int[] size, TemplateFormat format) {
+        long start = System.nanoTime();
+        int ret = scanner.getTemplate(template, size, format);
+        getTemplate.recordNanos(System.nanoTime() - start);
+        return ret;
+    }
+
+    @Override
+    public int matchTemplate(byte[] probeTemplate, byte[] galleryTemplate, int[] score, TemplateFormat format) {
+        long start = System.nanoTime();
+        int ret = scanner.matchTemplate(probeTemplate, galleryTemplate, score, format);
+        matchTemplate.recordNanos(System.nanoTime() - start);
+        return ret;
+    }
+
+    @Override
+    public String getErrorMessage(int errorCode) {
+        return scanner.getErrorMessage(errorCode);
+    }
+
+    @Override
+    public void dispose() {
+        scanner.dispose();
+    }
+}
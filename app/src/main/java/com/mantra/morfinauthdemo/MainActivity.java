@@ -1,8 +1,8 @@
 package com.mantra.morfinauthdemo;
 
-import android.database.Cursor;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.Choreographer;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -13,53 +13,87 @@ import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
-import com.mantra.morfinauth.MorfinAuth;
 import com.mantra.morfinauth.DeviceInfo;
 import com.mantra.morfinauth.MorfinAuth_Callback;
 import com.mantra.morfinauth.enums.DeviceDetection;
 import com.mantra.morfinauth.enums.DeviceModel;
-import com.mantra.morfinauth.enums.ImageFormat;
 import com.mantra.morfinauth.enums.LogLevel;
 import com.mantra.morfinauth.enums.TemplateFormat;
 
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 
 
 public class MainActivity extends AppCompatActivity implements MorfinAuth_Callback {
 
-    private MorfinAuth morfinAuth;
+    private volatile InstrumentedScanner scanner;
+    private volatile CaptureSessionController captureController;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private volatile long captureStartedNanos;
+    private volatile SessionTracer sessionTracer = SessionTracer.DISABLED;
+    private final ImageArchiver imageArchiver = new ImageArchiver(IMAGE_ARCHIVE_FORMAT);
+    private final ExecutorService archiveExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "ImageArchive"));
     private DeviceInfo lastDeviceInfo;
     private DeviceModel connectedDeviceModel;
-
-    private boolean isInitRunning = false;
-    private boolean isUninitRunning = false;
-    private boolean isStartCaptureRunning = false;
-    private boolean isStopCaptureRunning = false;
+    private volatile BufferPool imageBufferPool;
+    private volatile BufferPool templateBufferPool;
+    private final PreviewRenderer previewRenderer = new PreviewRenderer();
+    private UiUpdateScheduler uiScheduler;
 
     private TextView txtStatus;
     private Button btnInit, btnUninit, btnStartCapture, btnStopCapture, btnSyncCapture;
 
-    private Thread captureThread;
     private ImageView imgFinger;
 
     private android.widget.EditText edtUserId;
     private Button btnVerifyUser;
+    private Button btnMatchFinger;
 
     private String clientKey = "";
     private int minQuality = 60;
     private int timeOut = 10000;
 
-    private int captureCount = 0;
+    private volatile int captureCount = 0;
     private static final int MAX_FINGERS = 10;
+    private static final int PIPELINE_QUEUE_CAPACITY = 3;
+    private static final int IMAGE_BUFFER_COUNT = 4;
+    private static final int TEMPLATE_BUFFER_COUNT = 1;
+
+    // false matches with SDK MatchTemplate, which needs an initialized scanner.
+    private static final boolean USE_JAVA_MATCHER = false;
+
+    // true replays files/scanner_corpus instead of a real device.
+    private static final boolean USE_SIMULATED_SCANNER = false;
+    private static final String SCANNER_CORPUS_DIR = "scanner_corpus";
+
+    private static final String METRICS_FILE = "metrics.json";
+    private static final long METRICS_SNAPSHOT_INTERVAL_MS = 60_000;
+
+    private static final int TRACE_CAPACITY = 4096;
+
+    private static final ImageArchiver.Format IMAGE_ARCHIVE_FORMAT = ImageArchiver.Format.PNG;
+    private static final long ARCHIVE_SHUTDOWN_TIMEOUT_MS = 2000;
+    private static final long CAPTURE_SHUTDOWN_TIMEOUT_MS = 2000;
+
+    private static final double PREFILTER_CANDIDATE_FRACTION = 0.25;
+    private static final int PREFILTER_MIN_CANDIDATES = 200;
 
-    private boolean stopCaptureRequested = false;
-    private boolean isAutoCaptureMode = false;
+    private static final int MATCH_THRESHOLD = 400;
+    private static final int MATCH_TOP_K = 3;
 
+    private static final long MATCH_BUDGET_MS = 700;
 
-    private String currentSessionFolder;
+    private static final long VERIFY_TIMEOUT_MS = 200;
+
+    private volatile String currentSessionId;
+    private volatile CapturePackStore packStore;
 
     private enum ScannerAction {
         ENROLL,
@@ -68,7 +102,20 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
 
 
     private ScannerAction currentAction = ScannerAction.ENROLL;
-    private FingerprintDatabaseHelper dbHelper;
+    private volatile FingerprintDatabaseHelper dbHelper;
+    private volatile IdentificationEngine identificationEngine;
+    private volatile VerificationService verificationService;
+
+    private static final String PHASE_SDK = "sdk";
+    private static final String PHASE_DATABASE = "database";
+    private static final String PHASE_GALLERY = "gallery";
+    private static final String PHASE_HIT_STATISTICS = "hitStatistics";
+    private static final String PHASE_ENGINE = "engine";
+    private static final String PHASE_CAPTURE_PACKS = "capturePacks";
+
+    private StartupOrchestrator startup;
+    private boolean deviceControlsReady = false;
+    private boolean identifyReady = false;
     private byte[] lastCapturedTemplate = null;
     private byte[] lastCapturedImage = null;
 
@@ -89,27 +136,60 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
 
         edtUserId = findViewById(R.id.edtUserId);
         btnVerifyUser = findViewById(R.id.btnVerifyUser);
+        btnMatchFinger = findViewById(R.id.btnMatchFinger);
 
 
+        btnInit.setEnabled(false);
+        btnMatchFinger.setEnabled(false);
+        btnVerifyUser.setEnabled(false);
         btnUninit.setEnabled(false);
         btnStartCapture.setEnabled(false);
         btnStopCapture.setEnabled(false);
 
+        uiScheduler = new UiUpdateScheduler(new UiUpdateScheduler.Sink() {
+            @Override
+            public void onPreview(android.graphics.Bitmap frame) {
+                imgFinger.setImageBitmap(frame);
+                previewRenderer.onFrameDisplayed();
+            }
+
+            @Override
+            public void onStatus(CharSequence status) {
+                txtStatus.setText(status);
+            }
+        }, metrics);
+
         ViewCompat.setOnApplyWindowInsetsListener(findViewById(R.id.main), (v, insets) -> {
             Insets systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars());
             v.setPadding(systemBars.left, systemBars.top, systemBars.right, systemBars.bottom);
             return insets;
         });
 
-        morfinAuth = new MorfinAuth(this, this);
-        String logPath = getExternalFilesDir(null).toString();
-        morfinAuth.SetLogProperties(logPath, LogLevel.DEBUG);
+        txtStatus.setText(R.string.status_disconnected);
 
+        packStore = new CapturePackStore(fingerDataDirectory());
 
-        dbHelper = new FingerprintDatabaseHelper(this);
-        Log.d("MainActivity", " Database initialized");
+        startup = new StartupOrchestrator(this::runOnUiThread, this::onStartupPhaseFinished);
+        startup.addPhase(PHASE_SDK, () -> {
+            Scanner sdk = createScanner();
+            String logPath = getExternalFilesDir(null).toString();
+            sdk.setLogProperties(logPath, LogLevel.DEBUG);
+            scanner = new InstrumentedScanner(sdk, metrics);
+            captureController = new CaptureSessionController(scanner);
+        });
+        startup.addPhase(PHASE_DATABASE, () -> {
+            FingerprintDatabaseHelper helper = new FingerprintDatabaseHelper(this, metrics);
+            helper.open();
+            dbHelper = helper;
+        });
+        startup.addPhase(PHASE_GALLERY, () -> dbHelper.getGallery(), PHASE_DATABASE);
+        startup.addPhase(PHASE_HIT_STATISTICS, () -> dbHelper.loadHitStatistics(), PHASE_DATABASE);
+        startup.addPhase(PHASE_ENGINE, this::createIdentificationEngine, PHASE_SDK, PHASE_DATABASE);
+        startup.addPhase(PHASE_CAPTURE_PACKS, () -> packStore.migrateSessionFolders());
+        startup.start();
 
-        txtStatus.setText(R.string.status_disconnected);
+        Choreographer.getInstance().postFrameCallback(frameTimeNanos ->
+                Log.d("Startup", "First frame after " + startup.elapsedMillis() + " ms"));
 
         setupInitClick();
         setupUninitClick();
@@ -119,107 +199,154 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
         setupMatchFingerClick();
         setupVerifyUserClick();
 
+        txtStatus.setOnLongClickListener(v -> {
+            txtStatus.setText(metrics.summary());
+            return true;
+        });
+        metrics.startPeriodicSnapshots(new File(getFilesDir(), METRICS_FILE), METRICS_SNAPSHOT_INTERVAL_MS);
+
+    }
+
+    private Scanner createScanner() throws IOException {
+        if (!USE_SIMULATED_SCANNER) {
+            return new MorfinScanner(this, this);
+        }
+        File corpus = getExternalFilesDir(SCANNER_CORPUS_DIR);
+        SimulatedScanner simulated = new SimulatedScanner(this, SimulatedScanner.Sample.loadCorpus(corpus),
+                System.nanoTime());
+        simulated.connect();
+        return simulated;
+    }
+
+    private void createIdentificationEngine() {
+        TemplateMatcher matcher = USE_JAVA_MATCHER
+                ? new MinutiaeTemplateMatcher()
+                : new SdkTemplateMatcher(scanner);
+        FingerprintDatabaseHelper helper = dbHelper;
+        IdentificationEngine engine = new ParallelIdentificationEngine(
+                matcher,
+                () -> helper.getGallery().getEntries(),
+                USE_JAVA_MATCHER ? Runtime.getRuntime().availableProcessors() : 1,
+                new CandidatePrefilter(PREFILTER_CANDIDATE_FRACTION, PREFILTER_MIN_CANDIDATES, true),
+                helper.getHitStatistics()
+        );
+        engine.setMatchThreshold(MATCH_THRESHOLD);
+        VerificationService verifier = new VerificationService(matcher, userId -> helper.getGallery().get(userId),
+                metrics, this::runOnUiThread, VERIFY_TIMEOUT_MS);
+        verifier.setMatchThreshold(MATCH_THRESHOLD);
+        identificationEngine = engine;
+        verificationService = verifier;
+    }
+
+
+    private void onStartupPhaseFinished(String phase, long durationMillis, Throwable error) {
+        if (error != null) {
+            Log.e("Startup", phase + " failed", error);
+            txtStatus.setText("Status : Startup failed (" + phase + ")\n" + error.getMessage());
+            return;
+        }
+        Log.d("Startup", phase + " took " + durationMillis + " ms");
+
+        if (!deviceControlsReady && startup.isComplete(PHASE_SDK) && startup.isComplete(PHASE_DATABASE)) {
+            deviceControlsReady = true;
+            btnInit.setEnabled(lastDeviceInfo == null
+                    && captureController.getState() == CaptureSessionController.State.IDLE);
+        }
+
+        if (!identifyReady && startup.isComplete(PHASE_ENGINE) && startup.isComplete(PHASE_GALLERY)
+                && startup.isComplete(PHASE_HIT_STATISTICS)) {
+            identifyReady = true;
+            btnMatchFinger.setEnabled(true);
+            btnVerifyUser.setEnabled(true);
+            Log.d("Startup", "Ready to identify after " + startup.elapsedMillis() + " ms ("
+                    + startup.describeTimings() + ")");
+            reportFullyDrawn();
+        }
     }
 
     private void setupInitClick() {
         btnInit.setOnClickListener(v -> {
-            if (isInitRunning) {
-                txtStatus.setText("Status : Init already running...");
-                return;
-            }
-
             if (connectedDeviceModel == null) {
                 txtStatus.setText("Status : No supported device detected\nConnect MFS500, MARC10, or MELO31");
                 return;
             }
 
-            txtStatus.setText("Status : Initializing " + connectedDeviceModel.name() + "...");
-            btnInit.setEnabled(false);
+            DeviceModel model = connectedDeviceModel;
+            DeviceInfo info = new DeviceInfo();
+            String key = (clientKey == null || clientKey.isEmpty()) ? null : clientKey;
 
-            new Thread(() -> {
-                try {
-                    isInitRunning = true;
-                    DeviceInfo info = new DeviceInfo();
-                    String key = (clientKey == null || clientKey.isEmpty()) ? null : clientKey;
-
-                    int ret = morfinAuth.Init(connectedDeviceModel, key, info);
-
-                    runOnUiThread(() -> {
-                        if (ret == 0) {
-                            lastDeviceInfo = info;
-                            setDeviceInfo(info);
-                            btnUninit.setEnabled(true);
-                            btnInit.setEnabled(false);
-                            btnStartCapture.setEnabled(true);
-                            btnSyncCapture.setEnabled(true);
-                        } else {
-                            txtStatus.setText(
-                                    "Status : INIT FAILED (" + ret + ")\n" +
-                                            morfinAuth.GetErrorMessage(ret)
-                            );
-                            btnInit.setEnabled(true);
-                        }
-                        isInitRunning = false;
-                    });
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    runOnUiThread(() -> {
-                        txtStatus.setText("Status : Error\n" + e.getMessage());
-                        btnInit.setEnabled(true);
-                        isInitRunning = false;
-                    });
+            boolean accepted = captureController.init(model, key, info, (ret, error) -> {
+                if (error == null && ret == 0) {
+                    allocateBufferPools(info);
                 }
-            }).start();
+
+                runOnUiThread(() -> {
+                    if (error != null) {
+                        txtStatus.setText("Status : Error\n" + error.getMessage());
+                        btnInit.setEnabled(true);
+                    } else if (ret == 0) {
+                        lastDeviceInfo = info;
+                        setDeviceInfo(info);
+                        btnUninit.setEnabled(true);
+                        btnInit.setEnabled(false);
+                        btnStartCapture.setEnabled(true);
+                        btnSyncCapture.setEnabled(true);
+                    } else {
+                        txtStatus.setText(
+                                "Status : INIT FAILED (" + ret + ")\n" +
+                                        scanner.getErrorMessage(ret)
+                        );
+                        btnInit.setEnabled(true);
+                    }
+                });
+            });
+
+            if (!accepted) {
+                txtStatus.setText("Status : Init already running...");
+                return;
+            }
+
+            txtStatus.setText("Status : Initializing " + model.name() + "...");
+            btnInit.setEnabled(false);
         });
     }
 
     private void setupUninitClick() {
         btnUninit.setOnClickListener(v -> {
-            if (isUninitRunning) {
-                txtStatus.setText("Status : Uninit already running...");
+            boolean accepted = captureController.uninit((ret, error) -> runOnUiThread(() -> {
+                if (error != null) {
+                    txtStatus.setText("Status : UNINIT ERROR\n" + error.getMessage());
+                    btnUninit.setEnabled(true);
+                    btnStopCapture.setEnabled(false);
+                } else if (ret == 0) {
+                    txtStatus.setText("Status : UNINIT SUCCESS");
+                    lastDeviceInfo = null;
+                    releaseBufferPools();
+                    imgFinger.setImageDrawable(null);
+                    setClearDeviceInfo();
+                    btnInit.setEnabled(true);
+                    btnUninit.setEnabled(false);
+                    btnStartCapture.setEnabled(false);
+                    btnStopCapture.setEnabled(false);
+                } else {
+                    txtStatus.setText(
+                            "Status : UNINIT FAILED (" + ret + ")\n" +
+                                    scanner.getErrorMessage(ret)
+                    );
+                    btnUninit.setEnabled(true);
+                    btnStopCapture.setEnabled(false);
+                }
+            }));
+
+            if (!accepted) {
+                txtStatus.setText(captureController.getState() == CaptureSessionController.State.UNINITIALIZING
+                        ? "Status : Uninit already running..."
+                        : "Status : Stop capture before uninit");
                 return;
             }
 
             txtStatus.setText("Status : Uninitializing...");
             btnUninit.setEnabled(false);
-            isUninitRunning = true;
-
-            new Thread(() -> {
-                try {
-                    int ret = morfinAuth.Uninit();
-                    isStartCaptureRunning = false;
-                    isStopCaptureRunning = false;
-
-                    runOnUiThread(() -> {
-                        if (ret == 0) {
-                            txtStatus.setText("Status : UNINIT SUCCESS");
-                            lastDeviceInfo = null;
-                            imgFinger.setImageDrawable(null);
-                            setClearDeviceInfo();
-                            btnInit.setEnabled(true);
-                            btnUninit.setEnabled(false);
-                            btnStartCapture.setEnabled(false);
-                            btnStopCapture.setEnabled(false);
-                        } else {
-                            txtStatus.setText(
-                                    "Status : UNINIT FAILED (" + ret + ")\n" +
-                                            morfinAuth.GetErrorMessage(ret)
-                            );
-                            btnUninit.setEnabled(true);
-                            btnStopCapture.setEnabled(false);
-                        }
-                        isUninitRunning = false;
-                    });
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    runOnUiThread(() -> {
-                        txtStatus.setText("Status : UNINIT ERROR\n" + e.getMessage());
-                        btnUninit.setEnabled(true);
-                        btnStopCapture.setEnabled(false);
-                        isUninitRunning = false;
-                    });
-                }
-            }).start();
         });
     }
 
@@ -238,266 +365,255 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
 
     private void setupStartCaptureClick() {
         btnStartCapture.setOnClickListener(v -> {
-
-            if (isStartCaptureRunning) {
-                txtStatus.setText("Status : Capture already running...");
-                return;
-            }
-
-            if (isStopCaptureRunning) {
-                txtStatus.setText("Status : Stop capture in progress...");
-                return;
-            }
-
             if (lastDeviceInfo == null) {
                 txtStatus.setText("Status : Please run device init first");
                 return;
             }
 
-
-            currentSessionFolder = createSessionFolder();
-            if (currentSessionFolder == null) {
+            String sessionId = createSessionId();
+            if (sessionId == null) {
                 txtStatus.setText("Status : Failed to create storage folder");
                 return;
             }
+            SessionTracer tracer = new SessionTracer(TRACE_CAPACITY);
 
-            captureCount = 0;
-            stopCaptureRequested = false;
-            isAutoCaptureMode = false;
+            CaptureSessionController.Session session = captureController.startCapture(s -> {
+                currentSessionId = sessionId;
+                sessionTracer = tracer;
+                captureCount = 0;
+                startFingerCapture(s);
+            });
+            if (session == null) {
+                txtStatus.setText(captureController.getState() == CaptureSessionController.State.STOPPING
+                        ? "Status : Stop capture in progress..."
+                        : "Status : Capture already running...");
+                return;
+            }
 
             imgFinger.setImageResource(android.R.color.white);
             txtStatus.setText("Status : FINGER 1/10\nPlace your finger on sensor");
             btnStartCapture.setEnabled(false);
             btnStopCapture.setEnabled(true);
-            isStartCaptureRunning = true;
-
-            try {
-                int ret = morfinAuth.StartCapture(minQuality, timeOut);
-
-                if (ret != 0) {
-                    isStartCaptureRunning = false;
-                    btnStartCapture.setEnabled(true);
-                    btnStopCapture.setEnabled(false);
-                    txtStatus.setText(
-                            "Status : START CAPTURE FAILED (" + ret + ")\n" +
-                                    morfinAuth.GetErrorMessage(ret)
-                    );
-                }
-
-            } catch (Exception e) {
-                e.printStackTrace();
-                isStartCaptureRunning = false;
-                btnStartCapture.setEnabled(true);
-                btnStopCapture.setEnabled(false);
-                txtStatus.setText("Status : Error starting capture\n" + e.getMessage());
-            }
         });
     }
 
     private void setupStopCaptureClick() {
-        btnStopCapture.setOnClickListener(v -> {
-            if (isStopCaptureRunning) {
-                txtStatus.setText("Status : Stop capture already running...");
-                return;
-            }
-
-            stopCaptureRequested = true;
+        btnStopCapture.setOnClickListener(v -> requestStopCapture());
+    }
 
-            if (isAutoCaptureMode) {
-                txtStatus.setText("Status : Stopping AutoCapture...");
-                btnStopCapture.setEnabled(false);
+    private void requestStopCapture() {
+        CaptureSessionController controller = captureController;
+        if (controller == null) {
+            return;
+        }
+        CaptureSessionController.Session session = controller.getSession();
+        boolean accepted = controller.stop((ret, error) -> runOnUiThread(() -> {
+            if (error != null) {
+                txtStatus.setText("Status : Error stopping capture\n" + error.getMessage());
+                btnStopCapture.setEnabled(true);
+            } else if (ret == 0) {
+                String message = String.format(
+                        "Status : Manually stopped\nCaptured %d/10 fingers",
+                        captureCount
+                );
+                finishCaptureSession(session, message);
             } else {
-                txtStatus.setText("Status : Stopping capture...");
-                btnStopCapture.setEnabled(false);
-                isStopCaptureRunning = true;
-
-                new Thread(() -> {
-                    try {
-                        int ret = morfinAuth.StopCapture();
-
-                        runOnUiThread(() -> {
-                            if (ret == 0) {
-                                String message = String.format(
-                                        "Status : Manually stopped\nCaptured %d/10 fingers",
-                                        captureCount
-                                );
-                                finishCaptureSession(message);
-                            } else {
-                                txtStatus.setText(
-                                        "Status : STOP CAPTURE FAILED (" + ret + ")\n" +
-                                                morfinAuth.GetErrorMessage(ret)
-                                );
-                                btnStopCapture.setEnabled(true);
-                                stopCaptureRequested = false;
-                            }
-                            isStopCaptureRunning = false;
-                        });
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        runOnUiThread(() -> {
-                            txtStatus.setText("Status : Error stopping capture\n" + e.getMessage());
-                            btnStopCapture.setEnabled(true);
-                            stopCaptureRequested = false;
-                            isStopCaptureRunning = false;
-                        });
-                    }
-                }).start();
+                txtStatus.setText(
+                        "Status : STOP CAPTURE FAILED (" + ret + ")\n" +
+                                scanner.getErrorMessage(ret)
+                );
+                btnStopCapture.setEnabled(true);
             }
-        });
+        }));
+
+        if (!accepted) {
+            if (controller.getState() == CaptureSessionController.State.STOPPING) {
+                txtStatus.setText("Status : Stop capture already running...");
+            }
+            return;
+        }
+
+        txtStatus.setText(session.isBlocking() ? "Status : Stopping AutoCapture..." : "Status : Stopping capture...");
+        btnStopCapture.setEnabled(false);
     }
 
     private void setupSyncCaptureClick() {
         btnSyncCapture.setOnClickListener(v -> {
-
-            if (isStartCaptureRunning || (captureThread != null && captureThread.isAlive())) {
-                txtStatus.setText("Status : capture already running...");
-                return;
-            }
-
             if (lastDeviceInfo == null) {
                 txtStatus.setText("Status : Please run device init first");
                 return;
             }
 
-
-            currentSessionFolder = createSessionFolder();
-            if (currentSessionFolder == null) {
+            String sessionId = createSessionId();
+            if (sessionId == null) {
                 txtStatus.setText("Status : Failed to create storage folder");
                 return;
             }
+            SessionTracer tracer = new SessionTracer(TRACE_CAPACITY);
 
-            captureCount = 0;
-            stopCaptureRequested = false;
-            isAutoCaptureMode = true;
+            CaptureSessionController.Session session =
+                    captureController.runCapture(s -> runAutoCaptureSession(s, sessionId, tracer));
+            if (session == null) {
+                txtStatus.setText("Status : capture already running...");
+                return;
+            }
 
             imgFinger.setImageResource(android.R.color.white);
             txtStatus.setText("Status : Starting AutoCapture...\nPlace your finger on sensor");
             btnSyncCapture.setEnabled(false);
             btnStartCapture.setEnabled(false);
             btnStopCapture.setEnabled(true);
-            isStartCaptureRunning = true;
+        });
+    }
 
-            captureThread = new Thread(() -> {
-                try {
+    private void runAutoCaptureSession(CaptureSessionController.Session session, String sessionId,
+                                       SessionTracer tracer) {
+        currentSessionId = sessionId;
+        sessionTracer = tracer;
+        captureCount = 0;
+
+        EnrollmentSession enrollment = dbHelper.beginEnrollmentSession();
+        List<Integer> enrolledFingers = new ArrayList<>();
+        CapturePipeline pipeline = new CapturePipeline(
+                PIPELINE_QUEUE_CAPACITY,
+                frame -> archiveImage(sessionId, frame),
+                frame -> {
+                    if (frame.template != null) {
+                        enrollment.addCapture(frame.archivedImage, frame.template, frame.quality, frame.nfiq);
+                        enrolledFingers.add(frame.fingerNumber);
+                    }
+                }
+        );
+
+        try {
+            String failure = null;
+            while (captureCount < MAX_FINGERS && !session.isStopRequested()) {
+                int[] qty = new int[1];
+                int[] nfiq = new int[1];
+
+                long waitStart = System.nanoTime();
+                int ret = scanner.autoCapture(minQuality, timeOut, qty, nfiq);
+                tracer.complete("capture wait", waitStart, "finger " + (captureCount + 1) + ", ret " + ret);
 
-                    while (captureCount < MAX_FINGERS && !stopCaptureRequested) {
-                        int[] qty = new int[1];
-                        int[] nfiq = new int[1];
-
-                        int ret = morfinAuth.AutoCapture(minQuality, timeOut, qty, nfiq);
-
-                        if (ret == 0) {
-                            captureCount++;
-
-                            saveImageToStorage(captureCount, qty[0], nfiq[0]);
-
-
-                            runOnUiThread(() -> {
-                                if (captureCount < MAX_FINGERS) {
-                                    txtStatus.setText(
-                                            String.format(
-                                                    "Status : FINGER %d/10 SAVED\nQuality: %d\nNFIQ: %d\n\nPlace next finger...",
-                                                    captureCount,
-                                                    qty[0],
-                                                    nfiq[0]
-                                            )
-                                    );
-                                } else {
-                                    txtStatus.setText(
-                                            String.format(
-                                                    "Status : FINGER %d/10 SAVED\nQuality: %d\nNFIQ: %d\n\nAll 10 fingers captured!",
-                                                    captureCount,
-                                                    qty[0],
-                                                    nfiq[0]
-                                            )
-                                    );
-                                }
-                            });
-                        } else if (ret == -2019) {
-                            if (!stopCaptureRequested && captureCount < MAX_FINGERS) {
-                                runOnUiThread(() -> {
-                                    txtStatus.setText(
-                                            String.format(
-                                                    "Status : Timeout\nRetrying FINGER %d/10\nPlace your finger...",
-                                                    captureCount + 1
-                                            )
-                                    );
-                                });
-                            }
-                        } else if (ret == -2057) {
-                            runOnUiThread(() -> {
-                                txtStatus.setText("Status : Device not connected");
-                            });
-                            finishAutoCaptureSession();
-                        } else {
-                            runOnUiThread(() -> {
-                                txtStatus.setText(
-                                        String.format(
-                                                "Status : AUTOCAPTURE FAILED (%d)\n%s\nCaptured %d/10 fingers",
-                                                ret,
-                                                morfinAuth.GetErrorMessage(ret),
-                                                captureCount
-                                        )
-                                );
-                            });
-                            finishAutoCaptureSession();
-                        }
-
-                        if (ret == -2019) {
-                            continue;
-                        }
-
-                        if (ret != 0) {
-                            break;
-                        }
-
-                        if (stopCaptureRequested) {
-                            break;
-                        }
+                if (ret != 0 && session.isStopRequested()) {
+                    break;
+                }
+                if (ret == 0) {
+                    captureCount++;
+
+                    CaptureFrame frame = pullCaptureFrame(captureCount, qty[0], nfiq[0]);
+                    if (frame != null) {
+                        pipeline.submit(frame);
                     }
 
-                    runOnUiThread(() -> {
-                        if (stopCaptureRequested) {
-                            String message = String.format(
-                                    "Status : Manually stopped\nSaved %d/10 fingers",
-                                    captureCount
-                            );
-                            finishAutoCaptureSession(message);
-                        } else if (captureCount >= MAX_FINGERS) {
-                            finishAutoCaptureSession(
-                                    "Status : AUTOCAPTURE COMPLETE\nSaved 10/10 fingers"
-                            );
-                        } else {
-                            finishAutoCaptureSession();
-                        }
-                    });
+                    if (captureCount < MAX_FINGERS) {
+                        uiScheduler.postStatus(
+                                String.format(
+                                        "Status : FINGER %d/10 CAPTURED\nQuality: %d\nNFIQ: %d\n\nPlace next finger...",
+                                        captureCount,
+                                        qty[0],
+                                        nfiq[0]
+                                )
+                        );
+                    } else {
+                        uiScheduler.postStatus(
+                                String.format(
+                                        "Status : FINGER %d/10 CAPTURED\nQuality: %d\nNFIQ: %d\n\nAll 10 fingers captured!",
+                                        captureCount,
+                                        qty[0],
+                                        nfiq[0]
+                                )
+                        );
+                    }
+                } else if (ret == -2019) {
+                    tracer.instant("retry", "finger " + (captureCount + 1));
+                    if (!session.isStopRequested() && captureCount < MAX_FINGERS) {
+                        uiScheduler.postStatus(
+                                String.format(
+                                        "Status : Timeout\nRetrying FINGER %d/10\nPlace your finger...",
+                                        captureCount + 1
+                                )
+                        );
+                    }
+                } else if (ret == -2057) {
+                    failure = "Status : Device not connected";
+                    break;
+                } else {
+                    failure = String.format(
+                            "Status : AUTOCAPTURE FAILED (%d)\n%s\nCaptured %d/10 fingers",
+                            ret,
+                            scanner.getErrorMessage(ret),
+                            captureCount
+                    );
+                    break;
+                }
+            }
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    runOnUiThread(() -> {
-                        txtStatus.setText("Status : Error in AutoCapture\n" + e.getMessage());
-                        finishAutoCaptureSession();
-                    });
-                } finally {
-                    captureThread = null;
-                    isAutoCaptureMode = false;
+            pipeline.finish();
+
+            boolean stopped = session.isStopRequested();
+            int usable = enrollment.size();
+            if (failure == null && !stopped && captureCount >= MAX_FINGERS
+                    && (pipeline.getFailureCount() > 0 || usable != captureCount)) {
+                // A finger lost on the way to the enrollment voids the session.
+                failure = String.format(
+                        "Status : AUTOCAPTURE FAILED\nOnly %d/10 fingers usable\nSession discarded",
+                        usable
+                );
+            }
+            List<String> savedUserIds = null;
+            if (failure == null && !stopped && captureCount >= MAX_FINGERS) {
+                long commitStart = System.nanoTime();
+                savedUserIds = enrollment.commit();
+                tracer.complete("db insert", commitStart, captureCount + " fingers");
+                if (savedUserIds != null) {
+                    for (int i = 0; i < savedUserIds.size(); i++) {
+                        labelCapture(sessionId, enrolledFingers.get(i), savedUserIds.get(i));
+                    }
                 }
-            });
+            } else {
+                enrollment.abort();
+            }
 
-            captureThread.start();
-        });
-    }
+            String message;
+            if (failure != null) {
+                message = failure;
+            } else if (stopped) {
+                message = String.format(
+                        "Status : Manually stopped\nDiscarded %d/10 fingers",
+                        captureCount
+                );
+            } else if (captureCount >= MAX_FINGERS) {
+                message = savedUserIds != null
+                        ? "Status : AUTOCAPTURE COMPLETE\nSaved 10/10 fingers"
+                        : "Status : AUTOCAPTURE FAILED\nCould not save session to database";
+            } else {
+                message = null;
+            }
+            runOnUiThread(() -> finishAutoCaptureSession(message));
 
-    private void finishAutoCaptureSession() {
-        finishAutoCaptureSession(null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            try {
+                pipeline.finish();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            enrollment.abort();
+            runOnUiThread(() -> finishAutoCaptureSession("Status : Error in AutoCapture\n" + e.getMessage()));
+        } finally {
+            syncCapturePacks();
+            exportSessionTrace(tracer, sessionId);
+        }
     }
 
     private void finishAutoCaptureSession(String customMessage) {
-        isStartCaptureRunning = false;
-        stopCaptureRequested = false;
+        uiScheduler.cancelPendingStatus();
 
-        btnSyncCapture.setEnabled(true);
-        btnStartCapture.setEnabled(true);
+        if (lastDeviceInfo != null) {
+            btnSyncCapture.setEnabled(true);
+            btnStartCapture.setEnabled(true);
+        }
         btnStopCapture.setEnabled(false);
 
         if (customMessage != null && !customMessage.isEmpty()) {
@@ -508,15 +624,15 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
                             " Saved %d/10 images\n" +
                             "Location:\n%s",
                     captureCount,
-                    currentSessionFolder
+                    packStore.packFileFor(currentSessionId)
             );
             txtStatus.setText(finalMessage);
         }
 
-        Log.d("AutoCaptureSession", "Finished. Saved " + captureCount + " images to " + currentSessionFolder);
+        Log.d("AutoCaptureSession", "Finished. Saved " + captureCount + " images for session " + currentSessionId);
     }
 
-    private String createSessionFolder() {
+    private String createSessionId() {
         try {
 
             String timestamp = new java.text.SimpleDateFormat(
@@ -524,68 +640,90 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
                     java.util.Locale.US
             ).format(new java.util.Date());
 
+            File folder = packStore.getDirectory();
+            if (!folder.exists()) {
+                folder.mkdirs();
+            }
 
-            File storageDir;
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
-
-                File[] dirs = getExternalMediaDirs();
+            Log.d("SessionFolder", "Started session " + timestamp + " in " + folder);
 
+            return timestamp;
 
-                storageDir = (dirs != null && dirs.length > 0) ? dirs[0] : null;
+        } catch (Exception e) {
 
+            Log.e("SessionFolder", "Failed to create folder", e);
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-                if (storageDir == null) {
-                    storageDir = getExternalFilesDir(null);
-                }
-            } else {
+    private File fingerDataDirectory() {
+        File storageDir;
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
 
-                storageDir = getExternalFilesDir(null);
-            }
+            File[] dirs = getExternalMediaDirs();
 
 
-            String folderPath = storageDir.getAbsolutePath() +
-                    File.separator + "FingerData" +
-                    File.separator + timestamp;
+            storageDir = (dirs != null && dirs.length > 0) ? dirs[0] : null;
 
 
-            File folder = new File(folderPath);
-            if (!folder.exists()) {
-                folder.mkdirs();
+            if (storageDir == null) {
+                storageDir = getExternalFilesDir(null);
             }
+        } else {
 
-            Log.d("SessionFolder", "Created session folder: " + folderPath);
+            storageDir = getExternalFilesDir(null);
+        }
 
-            return folderPath;
+        return new File(storageDir, "FingerData");
+    }
 
-        } catch (Exception e) {
+    private void labelCapture(String sessionId, int fingerNumber, String userId) {
+        try {
+            packStore.label(sessionId, fingerNumber, userId);
+        } catch (IOException e) {
+            Log.e("CapturePack", "Error labelling finger " + fingerNumber + " of " + sessionId, e);
+        }
+    }
 
-            Log.e("SessionFolder", "Failed to create folder", e);
-            e.printStackTrace();
-            return null;
+    private void syncCapturePacks() {
+        try {
+            packStore.sync();
+        } catch (IOException e) {
+            Log.e("CapturePack", "Error syncing capture packs", e);
         }
     }
 
     private byte[] getTemplateFromCapture() {
+        PooledBuffer scratch = null;
         try {
-            int size = lastDeviceInfo.Width * lastDeviceInfo.Height + 1111;
-            byte[] bTemplateData = new byte[size];
+            scratch = requirePool(templateBufferPool).acquire();
             int[] tSize = new int[1];
 
 
-            int ret = morfinAuth.GetTemplate(bTemplateData, tSize, TemplateFormat.FMR_V2011);
+            long start = System.nanoTime();
+            int ret = scanner.getTemplate(scratch.array(), tSize, TemplateFormat.FMR_V2011);
+            sessionTracer.complete("GetTemplate", start);
 
             if (ret == 0) {
-                byte[] template = new byte[tSize[0]];
-                System.arraycopy(bTemplateData, 0, template, 0, tSize[0]);
+                scratch.setLength(tSize[0]);
+                byte[] template = scratch.copy();
                 Log.d("Template", "Template size: " + tSize[0] + " bytes");
                 return template;
             } else {
                 Log.e("Template", "GetTemplate failed: " + ret);
                 return null;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         } catch (Exception e) {
             Log.e("Template", "Error getting template", e);
             return null;
+        } finally {
+            if (scratch != null) {
+                scratch.release();
+            }
         }
     }
 
@@ -594,59 +732,109 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
 
 
     private void saveImageToStorage(int fingerNumber, int quality, int nfiq) {
+        CaptureFrame frame;
         try {
-            int size = lastDeviceInfo.Width * lastDeviceInfo.Height + 1111;
-            int[] iSize = new int[1];
-            byte[] bImage1 = new byte[size];
-
-            int ret = morfinAuth.GetImage(bImage1, iSize, 1, ImageFormat.BMP);
+            frame = pullCaptureFrame(fingerNumber, quality, nfiq);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            Log.e("ImageCapture", "Error reading captured image", e);
+            return;
+        }
+        if (frame == null) {
+            return;
+        }
 
-            if (ret == 0) {
-                byte[] bImage = new byte[iSize[0]];
-                System.arraycopy(bImage1, 0, bImage, 0, iSize[0]);
+        String sessionId = currentSessionId;
+        archiveExecutor.execute(() -> {
+            try {
+                archiveImage(sessionId, frame);
 
+                if (frame.template != null) {
+                    long start = System.nanoTime();
+                    String userId = dbHelper.saveFingerprint(frame.archivedImage, frame.template, quality, nfiq);
+                    sessionTracer.complete("db insert", start, userId);
+                    Log.d("Database", "Saved to DB: " + userId);
+                    if (userId != null) {
+                        labelCapture(sessionId, frame.fingerNumber, userId);
+                    }
+                }
 
-                String fileName = "finger_" + fingerNumber + ".jpg";
-                String filePath = currentSessionFolder + File.separator + fileName;
-                FileOutputStream fos = new FileOutputStream(filePath);
-                fos.write(bImage);
-                fos.close();
+            } catch (Exception e) {
+                Log.e("ImageCapture", "Error saving image", e);
+                e.printStackTrace();
+            } finally {
+                frame.release();
+            }
+        });
+    }
 
-                Log.d("ImageCapture", "Saved finger " + fingerNumber +
-                        " (Quality:" + quality + ", NFIQ:" + nfiq +
-                        ", Size:" + iSize[0] + " bytes) to " + filePath);
+    private CaptureFrame pullCaptureFrame(int fingerNumber, int quality, int nfiq) throws InterruptedException {
+        PooledBuffer image = requirePool(imageBufferPool).acquire();
+        int[] iSize = new int[1];
 
+        long start = System.nanoTime();
+        int ret = scanner.getImage(image.array(), iSize, imageArchiver.getCompressionRatio(),
+                imageArchiver.getFormat().scannerFormat);
+        sessionTracer.complete("GetImage", start);
 
-                byte[] template = getTemplateFromCapture();
-                if (template != null) {
-                    String userId = dbHelper.saveFingerprint(bImage, template, quality, nfiq);
-                    Log.d("Database", "Saved to DB: " + userId);
-                }
+        if (ret != 0) {
+            Log.e("ImageCapture", "GetImage failed with code: " + ret);
+            image.release();
+            return null;
+        }
+        image.setLength(iSize[0]);
 
-                bImage = null;
+        byte[] template = getTemplateFromCapture();
+        return new CaptureFrame(fingerNumber, image, template, quality, nfiq);
+    }
 
-            } else {
-                Log.e("ImageCapture", "GetImage failed with code: " + ret);
-            }
+    private void archiveImage(String sessionId, CaptureFrame frame) throws IOException {
+        int rawSize = frame.image.length();
+        long encodeStart = System.nanoTime();
+        frame.archivedImage = imageArchiver.encode(frame.image.array(), rawSize);
+        frame.image.release();
+        metrics.recordSince(MetricsRegistry.STORAGE_IMAGE_ENCODE, encodeStart);
+        sessionTracer.complete("encode", encodeStart, imageArchiver.getFormat().name());
+
+        long start = System.nanoTime();
+        packStore.append(sessionId, frame.fingerNumber, frame.quality, frame.nfiq,
+                imageArchiver.getFormat(), frame.archivedImage);
+        metrics.recordSince(MetricsRegistry.STORAGE_IMAGE_WRITE, start);
+        metrics.add(MetricsRegistry.STORAGE_BYTES_WRITTEN, frame.archivedImage.length);
+        sessionTracer.complete("file write", start, "finger " + frame.fingerNumber);
+
+        Log.d("ImageCapture", "Saved finger " + frame.fingerNumber +
+                " (Quality:" + frame.quality + ", NFIQ:" + frame.nfiq +
+                ", Size:" + frame.archivedImage.length + " of " + rawSize + " bytes) to " +
+                packStore.packFileFor(sessionId));
+    }
 
-        } catch (Exception e) {
-            Log.e("ImageCapture", "Error saving image", e);
-            e.printStackTrace();
+    private static BufferPool requirePool(BufferPool pool) {
+        if (pool == null) {
+            throw new IllegalStateException("Device not initialized");
         }
+        return pool;
     }
 
+    private void allocateBufferPools(DeviceInfo info) {
+        int size = BufferPool.scratchSizeFor(info.Width, info.Height);
+        imageBufferPool = new BufferPool(size, IMAGE_BUFFER_COUNT);
+        templateBufferPool = new BufferPool(size, TEMPLATE_BUFFER_COUNT);
+        Log.d("BufferPool", "Allocated " + (IMAGE_BUFFER_COUNT + TEMPLATE_BUFFER_COUNT) + " buffers of " + size + " bytes");
+    }
 
-    private void setupMatchFingerClick() {
+    private void releaseBufferPools() {
+        imageBufferPool = null;
+        templateBufferPool = null;
+        previewRenderer.reset();
+    }
 
-        Button btnMatchFinger = findViewById(R.id.btnMatchFinger);
 
+    private void setupMatchFingerClick() {
 
         btnMatchFinger.setOnClickListener(v -> {
-            if (isStartCaptureRunning || (captureThread != null && captureThread.isAlive())) {
-                txtStatus.setText("Status : Capture already running...");
-                return;
-            }
-
             if (lastDeviceInfo == null) {
                 txtStatus.setText("Status : Please init device first");
                 return;
@@ -658,141 +846,112 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
                 return;
             }
 
+            if (captureController.runCapture(this::runMatchCapture) == null) {
+                txtStatus.setText("Status : Capture already running...");
+                return;
+            }
             txtStatus.setText("Status : MATCH MODE\n" + totalUsers + " stored\nPlace your finger");
-            startMatchCapture();
         });
     }
 
-    private void startMatchCapture() {
-        if (isStartCaptureRunning || (captureThread != null && captureThread.isAlive())) {
-            txtStatus.setText("Status : Capture already running...");
-            return;
-        }
-
-        isStartCaptureRunning = true;
-
-        captureThread = new Thread(() -> {
-            try {
-                imgFinger.post(() -> {
-                    imgFinger.setImageResource(android.R.color.white);
-                });
-
-                int[] qty = new int[1];
-                int[] nfiq = new int[1];
+    private void runMatchCapture(CaptureSessionController.Session session) {
+        try {
+            imgFinger.post(() -> {
+                imgFinger.setImageResource(android.R.color.white);
+            });
 
-                int ret = morfinAuth.AutoCapture(minQuality, timeOut, qty, nfiq);
+            int[] qty = new int[1];
+            int[] nfiq = new int[1];
 
-                if (ret != 0) {
-                    imgFinger.post(() -> {
-                        imgFinger.setImageResource(android.R.color.white);
-                    });
+            int ret = scanner.autoCapture(minQuality, timeOut, qty, nfiq);
+            long matchDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MATCH_BUDGET_MS);
 
-                    if (ret == -2057) {
+            if (ret != 0) {
+                runOnUiThread(() -> {
+                    imgFinger.setImageResource(android.R.color.white);
+                    if (session.isStopRequested()) {
+                        txtStatus.setText("Status : Capture stopped");
+                    } else if (ret == -2057) {
                         txtStatus.setText("Status : Device not connected");
                     } else {
-                        txtStatus.setText("Status : Capture failed\n" + morfinAuth.GetErrorMessage(ret));
+                        txtStatus.setText("Status : Capture failed\n" + scanner.getErrorMessage(ret));
                     }
-                    isStartCaptureRunning = false;
-                    return;
-                }
-
-                byte[] capturedTemplate = getTemplateFromCapture();
-
-                if (capturedTemplate == null) {
-                    runOnUiThread(() -> {
-                        txtStatus.setText("Status : Failed to get template");
-                    });
-                    isStartCaptureRunning = false;
-                    return;
-                }
+                });
+                return;
+            }
 
-                performMatching(capturedTemplate, qty[0]);
-                isStartCaptureRunning = false;
+            byte[] capturedTemplate = getTemplateFromCapture();
 
-            } catch (Exception e) {
-                Log.e("Match", "Error", e);
+            if (capturedTemplate == null) {
                 runOnUiThread(() -> {
-                    txtStatus.setText("Status : Error\n" + e.getMessage());
+                    txtStatus.setText("Status : Failed to get template");
                 });
-                isStartCaptureRunning = false;
-            } finally {
-                captureThread = null;
+                return;
             }
-        });
-
-        captureThread.start();
-    }
-
-
-    private void performMatching(byte[] capturedTemplate, int quality) {
-        new Thread(() -> {
-            try {
-                Cursor cursor = dbHelper.getAllFingerprints();
-
-                if (cursor == null || cursor.getCount() == 0) {
-                    runOnUiThread(() -> {
-                        txtStatus.setText("Status : Database empty");
-                    });
-                    return;
-                }
-
 
-                final boolean[] isMatchArray = {false};
-                final String[] matchedUserIdArray = {""};
-                final int[] matchScoreArray = {0};
-                final int[] fingersCheckedArray = {0};
+            performMatching(capturedTemplate, qty[0], matchDeadline);
 
-                int userIdIdx = cursor.getColumnIndex(FingerprintDatabaseHelper.COL_USER_ID);
-                int templateIdx = cursor.getColumnIndex(FingerprintDatabaseHelper.COL_TEMPLATE);
-
-                while (cursor.moveToNext()) {
-                    if (userIdIdx >= 0 && templateIdx >= 0) {
-                        String userId = cursor.getString(userIdIdx);
-                        byte[] storedTemplate = cursor.getBlob(templateIdx);
-
-                        int[] score = new int[1];
+        } catch (Exception e) {
+            Log.e("Match", "Error", e);
+            runOnUiThread(() -> {
+                txtStatus.setText("Status : Error\n" + e.getMessage());
+            });
+        }
+    }
 
 
-                        int ret = morfinAuth.MatchTemplate(
-                                capturedTemplate,
-                                storedTemplate,
-                                score,
-                                TemplateFormat.FMR_V2011
-                        );
+    private void performMatching(byte[] capturedTemplate, int quality, long deadlineNanos) {
+        try {
+            long start = System.nanoTime();
+            IdentificationResult result =
+                    identificationEngine.identifyBefore(capturedTemplate, MATCH_TOP_K, deadlineNanos);
+            metrics.recordSince(MetricsRegistry.MATCH_IDENTIFY, start);
+            metrics.increment(MetricsRegistry.IDENTIFICATIONS);
+            metrics.add(MetricsRegistry.TEMPLATE_COMPARISONS, result.checked);
+
+            if (!result.matched && dbHelper.getGallery().size() == 0) {
+                runOnUiThread(() -> {
+                    txtStatus.setText("Status : Database empty");
+                });
+                return;
+            }
 
-                        fingersCheckedArray[0]++;
-                        Log.d("Match", userId + ": Score=" + score[0] + ", Ret=" + ret);
+            Log.d("Match", "Checked " + result.checked + " templates, matched=" + result.matched +
+                    ", exhaustive=" + result.exhaustive + ", deadline hits=" + identificationEngine.getDeadlineHits());
 
-                        if (ret == 0 && score[0] >= 400) {
-                            isMatchArray[0] = true;
-                            matchedUserIdArray[0] = userId;
-                            matchScoreArray[0] = score[0];
-                            break;
-                        }
-                    }
+            runOnUiThread(() -> {
+                if (result.matched) {
+                    txtStatus.setText(String.format(
+                            "Status : MATCH FOUND!\nUser: %s\nScore: %d \nQuality: %d%s",
+                            result.userId, result.score, quality, formatRunnersUp(result)));
+                } else if (!result.exhaustive) {
+                    txtStatus.setText(String.format(
+                            "Status : NO MATCH\nTime limit reached after %d of %d\nQuality: %d",
+                            result.checked, dbHelper.getGallery().size(), quality));
+                } else {
+                    txtStatus.setText(String.format(
+                            "Status : NO MATCH\nChecked: %d\nQuality: %d",
+                            result.checked, quality));
                 }
-                cursor.close();
+            });
 
+        } catch (Exception e) {
+            Log.e("Match", "Error", e);
+            runOnUiThread(() -> {
+                txtStatus.setText("Status : Match error\n" + e.getMessage());
+            });
+        }
+    }
 
-                runOnUiThread(() -> {
-                    if (isMatchArray[0]) {
-                        txtStatus.setText(String.format(
-                                "Status : MATCH FOUND!\nUser: %s\nScore: %d \nQuality: %d",
-                                matchedUserIdArray[0], matchScoreArray[0], quality));
-                    } else {
-                        txtStatus.setText(String.format(
-                                "Status : NO MATCH\nChecked: %d\nQuality: %d",
-                                fingersCheckedArray[0], quality));
-                    }
-                });
 
-            } catch (Exception e) {
-                Log.e("Match", "Error", e);
-                runOnUiThread(() -> {
-                    txtStatus.setText("Status : Match error\n" + e.getMessage());
-                });
-            }
-        }).start();
+    private static String formatRunnersUp(IdentificationResult result) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i < result.candidates.size(); i++) {
+            IdentificationResult.Candidate candidate = result.candidates.get(i);
+            text.append(i == 1 ? "\nNext: " : ", ")
+                    .append(candidate.userId).append(" (").append(candidate.score).append(")");
+        }
+        return text.toString();
     }
 
 
@@ -826,8 +985,10 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
 
     @Override
     public void OnDeviceDetection(String deviceName, DeviceDetection detection) {
-        isStartCaptureRunning = false;
-        isStopCaptureRunning = false;
+        CaptureSessionController controller = captureController;
+        if (detection == DeviceDetection.DISCONNECTED && controller != null) {
+            controller.deviceDisconnected();
+        }
 
         runOnUiThread(() -> {
             if (detection == DeviceDetection.CONNECTED) {
@@ -837,7 +998,8 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
 
                     txtStatus.setText("Status : Device connected - " + deviceName);
 
-                    if (lastDeviceInfo == null && !isInitRunning) {
+                    if (lastDeviceInfo == null && deviceControlsReady && captureController != null
+                            && captureController.getState() == CaptureSessionController.State.IDLE) {
                         btnInit.setEnabled(true);
                     }
                 } catch (Exception e) {
@@ -846,12 +1008,8 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
             } else if (detection == DeviceDetection.DISCONNECTED) {
 
                 try {
-
-                    isStartCaptureRunning = false;
-                    isStopCaptureRunning = false;
-                    stopCaptureRequested = true;
-
                     lastDeviceInfo = null;
+                    releaseBufferPools();
                     connectedDeviceModel = null;
                     txtStatus.setText(R.string.status_disconnected);
                     btnInit.setEnabled(false);
@@ -860,13 +1018,6 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
                     btnStopCapture.setEnabled(false);
                     btnSyncCapture.setEnabled(false);
                     imgFinger.setImageDrawable(null);
-
-                    try {
-                        morfinAuth.StopCapture();
-                        morfinAuth.Uninit();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
                     setClearDeviceInfo();
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -877,45 +1028,55 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
 
     @Override
     public void OnPreview(int errorCode, int quality, byte[] image) {
+        sessionTracer.instant("preview", "quality " + quality);
         if (errorCode == 0 && image != null && image.length > 0) {
 
             try {
-                android.graphics.Bitmap previewBitmap = android.graphics.BitmapFactory.decodeByteArray(
-                        image, 0, image.length
-                );
-
-                runOnUiThread(() -> {
-
-                    imgFinger.setImageBitmap(previewBitmap);
-                    txtStatus.setText("Status : Preview\nQuality: " + quality);
-                });
+                android.graphics.Bitmap previewBitmap = previewRenderer.render(image);
+                if (previewBitmap != null) {
+                    uiScheduler.postPreview(previewBitmap);
+                }
+                uiScheduler.postStatus("Status : Preview\nQuality: " + quality);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         } else {
 
-            runOnUiThread(() -> {
-                if (errorCode == -2057) {
-                    txtStatus.setText("Status : Device not connected");
-                } else {
-                    txtStatus.setText(
-                            "Status : Preview Error (" + errorCode + ")\n" +
-                                    morfinAuth.GetErrorMessage(errorCode)
-                    );
-                }
-            });
+            if (errorCode == -2057) {
+                uiScheduler.postStatus("Status : Device not connected");
+            } else {
+                uiScheduler.postStatus(
+                        "Status : Preview Error (" + errorCode + ")\n" +
+                                scanner.getErrorMessage(errorCode)
+                );
+            }
         }
     }
 
     @Override
     public void OnComplete(int errorCode, int Quality, int NFIQ) {
+        InstrumentedScanner instrumented = scanner;
+        if (instrumented != null) {
+            instrumented.recordCaptureResult(errorCode, System.nanoTime() - captureStartedNanos);
+        }
+        CaptureSessionController controller = captureController;
+        CaptureSessionController.Session session = controller != null ? controller.getSession() : null;
+        if (session == null) {
+            Log.d("CaptureSession", "Ignoring OnComplete(" + errorCode + ") outside a capture session");
+            return;
+        }
+        SessionTracer tracer = sessionTracer;
+        tracer.complete("capture wait", captureStartedNanos, "finger " + (captureCount + 1) + ", ret " + errorCode);
         try {
             if (errorCode == 0) {
 
                 captureCount++;
                 saveImageToStorage(captureCount, Quality, NFIQ);
 
+                long posted = System.nanoTime();
                 runOnUiThread(() -> {
+                    tracer.complete("ui post", posted);
+                    uiScheduler.cancelPendingStatus();
                     String status = String.format(
                             "Status : FINGER %d/10 SAVED\nQuality: %d\nNFIQ: %d",
                             captureCount,
@@ -924,21 +1085,19 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
                     );
                     txtStatus.setText(status);
 
-                    if (captureCount >= MAX_FINGERS) {
-                        isStartCaptureRunning = false;
-                        finishCaptureSession();
-                    } else if (!stopCaptureRequested) {
-                        restartCaptureForNextFinger();
+                    if (captureCount < MAX_FINGERS && !session.isStopRequested()) {
+                        restartCaptureForNextFinger(session);
                     } else {
-                        isStartCaptureRunning = false;
-                        finishCaptureSession();
+                        finishCaptureSession(session);
                     }
                 });
 
             } else if (errorCode == -2019) {
 
+                tracer.instant("retry", "finger " + (captureCount + 1));
                 runOnUiThread(() -> {
-                    if (!stopCaptureRequested && captureCount < MAX_FINGERS) {
+                    uiScheduler.cancelPendingStatus();
+                    if (!session.isStopRequested() && captureCount < MAX_FINGERS) {
                         txtStatus.setText(
                                 String.format(
                                         "Status : Timeout waiting for finger\nRetrying FINGER %d/10\nPlace your finger...",
@@ -946,87 +1105,71 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
                                 )
                         );
 
-                        restartCaptureForNextFinger();
+                        restartCaptureForNextFinger(session);
                     } else {
-                        isStartCaptureRunning = false;
-                        finishCaptureSession();
+                        finishCaptureSession(session);
                     }
                 });
 
             } else {
 
-                isStartCaptureRunning = false;
-
-                runOnUiThread(() -> {
-                    if (errorCode == -2057) {
-                        txtStatus.setText("Status : Device not connected");
-                    } else {
-                        txtStatus.setText(
-                                String.format(
-                                        "Status : CAPTURE FAILED (%d)\n%s\nCaptured %d/10 fingers",
-                                        errorCode,
-                                        morfinAuth.GetErrorMessage(errorCode),
-                                        captureCount
-                                )
+                String message = errorCode == -2057
+                        ? "Status : Device not connected"
+                        : String.format(
+                                "Status : CAPTURE FAILED (%d)\n%s\nCaptured %d/10 fingers",
+                                errorCode,
+                                scanner.getErrorMessage(errorCode),
+                                captureCount
                         );
-                    }
-                    finishCaptureSession();
-                });
+                runOnUiThread(() -> finishCaptureSession(session, message));
             }
         } catch (Exception e) {
             e.printStackTrace();
-            isStartCaptureRunning = false;
-            runOnUiThread(() -> {
-                txtStatus.setText("Status : Error in OnComplete\n" + e.getMessage());
-                finishCaptureSession();
-            });
+            runOnUiThread(() -> finishCaptureSession(session, "Status : Error in OnComplete\n" + e.getMessage()));
         }
     }
 
 
-    private void restartCaptureForNextFinger() {
-        try {
+    private void restartCaptureForNextFinger(CaptureSessionController.Session session) {
+        imgFinger.setImageResource(android.R.color.white);
 
-            imgFinger.setImageResource(android.R.color.white);
+        txtStatus.setText(
+                String.format(
+                        "Status : FINGER %d/10\nPlace your finger on sensor",
+                        captureCount + 1
+                )
+        );
 
-            txtStatus.setText(
-                    String.format(
-                            "Status : FINGER %d/10\nPlace your finger on sensor",
-                            captureCount + 1
-                    )
-            );
+        session.next(this::startFingerCapture);
+    }
 
-            int ret = morfinAuth.StartCapture(minQuality, timeOut);
+    private void startFingerCapture(CaptureSessionController.Session session) {
+        try {
+            captureStartedNanos = System.nanoTime();
+            int ret = scanner.startCapture(minQuality, timeOut);
 
             if (ret != 0) {
-                isStartCaptureRunning = false;
-                txtStatus.setText(
-                        "Status : START CAPTURE FAILED (" + ret + ")\n" +
-                                morfinAuth.GetErrorMessage(ret)
-                );
-                finishCaptureSession();
-            } else {
-
-                isStartCaptureRunning = true;
+                String message = "Status : START CAPTURE FAILED (" + ret + ")\n" + scanner.getErrorMessage(ret);
+                runOnUiThread(() -> finishCaptureSession(session, message));
             }
 
         } catch (Exception e) {
             e.printStackTrace();
-            isStartCaptureRunning = false;
-            txtStatus.setText("Status : Error restarting capture\n" + e.getMessage());
-            finishCaptureSession();
+            runOnUiThread(() -> finishCaptureSession(session, "Status : Error starting capture\n" + e.getMessage()));
         }
     }
 
-    private void finishCaptureSession() {
-        finishCaptureSession(null);
+    private void finishCaptureSession(CaptureSessionController.Session session) {
+        finishCaptureSession(session, null);
     }
 
-    private void finishCaptureSession(String customMessage) {
-        isStartCaptureRunning = false;
-        stopCaptureRequested = false;
+    private void finishCaptureSession(CaptureSessionController.Session session, String customMessage) {
+        session.finish();
+        uiScheduler.cancelPendingStatus();
 
-        btnStartCapture.setEnabled(true);
+        if (lastDeviceInfo != null) {
+            btnStartCapture.setEnabled(true);
+        }
         btnStopCapture.setEnabled(false);
 
         if (customMessage != null && !customMessage.isEmpty()) {
@@ -1037,12 +1180,36 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
                             " Saved %d/10 images\n" +
                             "Location:\n%s",
                     captureCount,
-                    currentSessionFolder
+                    packStore.packFileFor(currentSessionId)
             );
             txtStatus.setText(finalMessage);
         }
 
-        Log.d("CaptureSession", "Finished. Saved " + captureCount + " images to " + currentSessionFolder);
+        Log.d("CaptureSession", "Finished. Saved " + captureCount + " images for session " + currentSessionId);
+
+        SessionTracer tracer = sessionTracer;
+        String sessionId = currentSessionId;
+        archiveExecutor.execute(() -> {
+            syncCapturePacks();
+            exportSessionTrace(tracer, sessionId);
+        });
+    }
+
+    private void exportSessionTrace(SessionTracer tracer, String sessionId) {
+        if (!tracer.isEnabled() || sessionId == null) {
+            return;
+        }
+        if (sessionTracer == tracer) {
+            sessionTracer = SessionTracer.DISABLED;
+        }
+        File traceFile = new File(packStore.getDirectory(), sessionId + ".trace.json");
+        try {
+            tracer.writeTo(traceFile);
+            Log.d("SessionTrace", "Wrote " + tracer.size() + " spans (" + tracer.getDroppedCount() +
+                    " dropped) to " + traceFile);
+        } catch (IOException e) {
+            Log.e("SessionTrace", "Error writing session trace", e);
+        }
     }
 
     private void setupVerifyUserClick() {
@@ -1054,106 +1221,88 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
                 return;
             }
 
-            if (isStartCaptureRunning || (captureThread != null && captureThread.isAlive())) {
-                txtStatus.setText("Status : Capture already running...");
-                return;
-            }
-
             if (lastDeviceInfo == null) {
                 txtStatus.setText("Status : Please init device first");
                 return;
             }
 
+            if (captureController.runCapture(s -> runVerificationCapture(s, userId)) == null) {
+                txtStatus.setText("Status : Capture already running...");
+                return;
+            }
             txtStatus.setText("Status : VERIFYING " + userId + "\nPlace finger on sensor");
-            startVerificationCapture(userId);
         });
     }
 
-    private void startVerificationCapture(String targetUserId) {
-        isStartCaptureRunning = true;
-
-        captureThread = new Thread(() -> {
-            try {
-
-                runOnUiThread(() -> imgFinger.setImageResource(android.R.color.white));
-
-                int[] qty = new int[1];
-                int[] nfiq = new int[1];
-
-
-                int ret = morfinAuth.AutoCapture(minQuality, timeOut, qty, nfiq);
-
-                if (ret != 0) {
-                    runOnUiThread(() -> {
-                        if (ret == -2057) {
-                            txtStatus.setText("Status : Device not connected");
-                        } else {
-                            txtStatus.setText("Status : Capture failed (" + ret + ")\n" + morfinAuth.GetErrorMessage(ret));
-                        }
-                    });
-                    isStartCaptureRunning = false;
-                    return;
-                }
+    private void runVerificationCapture(CaptureSessionController.Session session, String targetUserId) {
+        try {
 
+            runOnUiThread(() -> imgFinger.setImageResource(android.R.color.white));
 
-                byte[] capturedTemplate = getTemplateFromCapture();
+            int[] qty = new int[1];
+            int[] nfiq = new int[1];
 
-                if (capturedTemplate == null) {
-                    runOnUiThread(() -> txtStatus.setText("Status : Failed to generate template"));
-                    isStartCaptureRunning = false;
-                    return;
-                }
 
+            int ret = scanner.autoCapture(minQuality, timeOut, qty, nfiq);
 
-                verifyUserInDb(targetUserId, capturedTemplate, qty[0]);
-                isStartCaptureRunning = false;
-
-            } catch (Exception e) {
-                Log.e("Verify", "Error", e);
-                runOnUiThread(() -> txtStatus.setText("Status : Error\n" + e.getMessage()));
-                isStartCaptureRunning = false;
-            } finally {
-                captureThread = null;
+            if (ret != 0) {
+                runOnUiThread(() -> {
+                    if (session.isStopRequested()) {
+                        txtStatus.setText("Status : Capture stopped");
+                    } else if (ret == -2057) {
+                        txtStatus.setText("Status : Device not connected");
+                    } else {
+                        txtStatus.setText("Status : Capture failed (" + ret + ")\n" + scanner.getErrorMessage(ret));
+                    }
+                });
+                return;
             }
-        });
 
-        captureThread.start();
-    }
-
-    private void verifyUserInDb(String targetUserId, byte[] capturedTemplate, int captureQuality) {
 
-        byte[] storedTemplate = dbHelper.getTemplateByUserId(targetUserId);
+            byte[] capturedTemplate = getTemplateFromCapture();
 
-        runOnUiThread(() -> {
-            if (storedTemplate == null) {
-                txtStatus.setText("Status : User ID '" + targetUserId + "' not found in database.");
-            } else {
-                int[] score = new int[1];
+            if (capturedTemplate == null) {
+                runOnUiThread(() -> txtStatus.setText("Status : Failed to generate template"));
+                return;
+            }
 
-                int ret = morfinAuth.MatchTemplate(
-                        capturedTemplate,
-                        storedTemplate,
-                        score,
-                        TemplateFormat.FMR_V2011
-                );
 
-                if (ret == 0) {
-                    if (score[0] >= 400) {
-                        txtStatus.setText(String.format(
-                                "Status : VERIFICATION SUCCESS\nUser: %s\nScore: %d\nQuality: %d",
-                                targetUserId, score[0], captureQuality));
+            verifyUser(targetUserId, capturedTemplate, qty[0]);
 
+        } catch (Exception e) {
+            Log.e("Verify", "Error", e);
+            runOnUiThread(() -> txtStatus.setText("Status : Error\n" + e.getMessage()));
+        }
+    }
 
-                        edtUserId.setText("");
-                    } else {
-                        txtStatus.setText(String.format(
-                                "Status : FINGERPRINT MISMATCH\nUser: %s\nScore: %d (Low)\nQuality: %d",
-                                targetUserId, score[0], captureQuality));
-                    }
-                } else {
-                    txtStatus.setText("Status : Match Error (" + ret + ")");
-                }
+    private void verifyUser(String targetUserId, byte[] capturedTemplate, int captureQuality) {
+        verificationService.verify(targetUserId, capturedTemplate, result -> {
+            switch (result.status) {
+                case MATCH:
+                    txtStatus.setText(String.format(
+                            "Status : VERIFICATION SUCCESS\nUser: %s\nScore: %d\nQuality: %d",
+                            targetUserId, result.score, captureQuality));
+
+
+                    edtUserId.setText("");
+                    break;
+                case MISMATCH:
+                    txtStatus.setText(String.format(
+                            "Status : FINGERPRINT MISMATCH\nUser: %s\nScore: %d (Low)\nQuality: %d",
+                            targetUserId, result.score, captureQuality));
+                    break;
+                case NOT_ENROLLED:
+                    txtStatus.setText("Status : User ID '" + targetUserId + "' not found in database.");
+                    break;
+                case TIMEOUT:
+                    txtStatus.setText(String.format(
+                            "Status : VERIFICATION TIMED OUT\nUser: %s\nNo decision within %d ms, try again",
+                            targetUserId, VERIFY_TIMEOUT_MS));
+                    break;
+                default:
+                    txtStatus.setText("Status : Match Error (" + result.errorCode + ")");
             }
+            Log.d("Verify", targetUserId + ": " + result.status + " in " + result.getLatencyMillis() + " ms");
         });
     }
 
@@ -1165,28 +1314,23 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
     @Override
     protected void onStop() {
         Log.e("MainActivity", "onStop");
-        if (isStartCaptureRunning) {
-            try {
-                morfinAuth.StopCapture();
-                isStartCaptureRunning = false;
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+        requestStopCapture();
+        archiveExecutor.execute(this::saveStatistics);
         super.onStop();
     }
 
+    // On the archive executor, so saves from onStop and shutdown never overlap.
+    private void saveStatistics() {
+        if (dbHelper != null) {
+            dbHelper.saveHitStatistics();
+        }
+        metrics.writeSnapshot(new File(getFilesDir(), METRICS_FILE));
+    }
+
     @Override
     public void onBackPressed() {
         Log.e("MainActivity", "onBackPressed");
-        if (isStartCaptureRunning) {
-            try {
-                morfinAuth.StopCapture();
-                isStartCaptureRunning = false;
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+        requestStopCapture();
         super.onBackPressed();
     }
 
@@ -1194,29 +1338,46 @@ public class MainActivity extends AppCompatActivity implements MorfinAuth_Callba
     protected void onPause() {
         super.onPause();
         Log.e("MainActivity", "onPause");
-        if (isStartCaptureRunning) {
-            try {
-                morfinAuth.StopCapture();
-                isStartCaptureRunning = false;
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+        requestStopCapture();
     }
 
     @Override
     protected void onDestroy() {
         Log.e("MainActivity", "onDestroy");
         try {
-            isStartCaptureRunning = false;
-            isStopCaptureRunning = false;
-            if (morfinAuth != null) {
-                morfinAuth.Uninit();
-                morfinAuth.Dispose();
+            if (startup != null) {
+                startup.shutdown();
             }
+            metrics.stopPeriodicSnapshots();
+            // Draining the capture and archive threads can take seconds.
+            new Thread(this::releaseResources, "Shutdown").start();
         } catch (Exception e) {
             e.printStackTrace();
         }
         super.onDestroy();
     }
+
+    private void releaseResources() {
+        try {
+            // Capture first, so its last frames reach the archive queue before it drains.
+            if (captureController != null) {
+                captureController.shutdown(CAPTURE_SHUTDOWN_TIMEOUT_MS);
+            }
+            archiveExecutor.execute(this::saveStatistics);
+            archiveExecutor.shutdown();
+            archiveExecutor.awaitTermination(ARCHIVE_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            packStore.close();
+            if (identificationEngine != null) {
+                identificationEngine.shutdown();
+            }
+            if (verificationService != null) {
+                verificationService.shutdown();
+            }
+            if (dbHelper != null) {
+                dbHelper.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 }
@@ -0,0 +1,250 @@
+package com.mantra.morfinauthdemo;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-stage latency histograms, counters and gauges for the capture, storage and matching paths.
+// Recording is lock-free; snapshots go to a JSON file on a timer and to a text summary on demand.
+public class MetricsRegistry {
+
+    public static final String CAPTURE_AUTO = "capture.auto_capture";
+    public static final String CAPTURE_GET_IMAGE = "capture.get_image";
+    public static final String CAPTURE_GET_TEMPLATE = "capture.get_template";
+    public static final String STORAGE_IMAGE_ENCODE = "storage.image_encode";
+    public static final String STORAGE_IMAGE_WRITE = "storage.image_write";
+    public static final String DB_INSERT = "db.insert";
+    public static final String MATCH_TEMPLATE = "match.template";
+    public static final String MATCH_IDENTIFY = "match.identify";
+    public static final String MATCH_VERIFY = "match.verify";
+
+    public static final String CAPTURES = "capture.success";
+    public static final String CAPTURE_TIMEOUTS = "capture.timeouts";
+    public static final String CAPTURE_ERRORS = "capture.errors";
+    public static final String STORAGE_BYTES_WRITTEN = "storage.bytes_written";
+    public static final String TEMPLATE_COMPARISONS = "match.comparisons";
+    public static final String IDENTIFICATIONS = "match.identifications";
+    public static final String VERIFICATIONS = "match.verifications";
+    public static final String VERIFICATION_TIMEOUTS = "match.verification_timeouts";
+    public static final String UI_DROPPED_PREVIEWS = "ui.dropped_previews";
+    public static final String UI_DROPPED_STATUSES = "ui.dropped_statuses";
+
+    public static final String GALLERY_SIZE = "gallery.size";
+
+    public interface Gauge {
+        long value();
+    }
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    // Counter values at the previous snapshot, for per-second rates.
+    private final Map<String, Long> lastCounts = new HashMap<>();
+    private long lastSnapshotNanos = startNanos;
+
+    private ScheduledExecutorService snapshotExecutor;
+
+    // Serializes snapshot file writes without holding the registry lock during I/O.
+    private final Object fileLock = new Object();
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    public AtomicLong counter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    public void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    // Records the time since startNanos, taken from System.nanoTime().
+    public void recordSince(String name, long startNanos) {
+        histogram(name).recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public void increment(String name) {
+        counter(name).incrementAndGet();
+    }
+
+    public void add(String name, long delta) {
+        counter(name).addAndGet(delta);
+    }
+
+    // Human-readable p50/p99 per stage for the status view. matches/s covers the time since the last
+    // JSON snapshot, or since startup before the first one.
+    public synchronized String summary() {
+        StringBuilder text = new StringBuilder();
+        for (String name : sorted(histograms.keySet())) {
+            LatencyHistogram.Snapshot s = histograms.get(name).snapshot();
+            if (s.count == 0) {
+                continue;
+            }
+            text.append(String.format(Locale.US, "%s: n=%d p50=%s p99=%s max=%s%n",
+                    name, s.count, millis(s.p50Micros), millis(s.p99Micros), millis(s.maxMicros)));
+        }
+        for (String name : sorted(counters.keySet())) {
+            text.append(name).append(": ").append(counters.get(name).get()).append('\n');
+        }
+        for (String name : sorted(gauges.keySet())) {
+            text.append(name).append(": ").append(gaugeValue(name)).append('\n');
+        }
+        double elapsedSeconds = (System.nanoTime() - lastSnapshotNanos) / 1e9;
+        Long previous = lastCounts.get(TEMPLATE_COMPARISONS);
+        long comparisons = counter(TEMPLATE_COMPARISONS).get() - (previous != null ? previous : 0);
+        text.append(String.format(Locale.US, "matches/s: %.0f", elapsedSeconds > 0 ? comparisons / elapsedSeconds : 0));
+        return text.toString();
+    }
+
+    // JSON snapshot; counter rates cover the time since the previous snapshot.
+    public synchronized String snapshotJson() {
+        long now = System.nanoTime();
+        double intervalSeconds = Math.max(1e-3, (now - lastSnapshotNanos) / 1e9);
+        lastSnapshotNanos = now;
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"timestamp\":").append(System.currentTimeMillis());
+        json.append(",\"uptime_ms\":").append((now - startNanos) / 1_000_000);
+
+        json.append(",\"histograms\":{");
+        boolean first = true;
+        for (String name : sorted(histograms.keySet())) {
+            LatencyHistogram.Snapshot s = histograms.get(name).snapshot();
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(name).append("\":{\"count\":").append(s.count)
+                    .append(",\"mean_us\":").append(s.meanMicros)
+                    .append(",\"p50_us\":").append(s.p50Micros)
+                    .append(",\"p90_us\":").append(s.p90Micros)
+                    .append(",\"p99_us\":").append(s.p99Micros)
+                    .append(",\"max_us\":").append(s.maxMicros).append('}');
+        }
+
+        json.append("},\"counters\":{");
+        first = true;
+        for (String name : sorted(counters.keySet())) {
+            long value = counters.get(name).get();
+            Long previous = lastCounts.put(name, value);
+            double rate = (value - (previous != null ? previous : 0)) / intervalSeconds;
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(name).append("\":{\"total\":").append(value)
+                    .append(",\"per_second\":").append(String.format(Locale.US, "%.2f", rate)).append('}');
+        }
+
+        json.append("},\"gauges\":{");
+        first = true;
+        for (String name : sorted(gauges.keySet())) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(name).append("\":").append(gaugeValue(name));
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    // Writes the snapshot through a temp file so a reader never sees a partial file. The JSON is built
+    // under the registry lock; the file is written outside it.
+    public boolean writeSnapshot(File file) {
+        String json = snapshotJson();
+        synchronized (fileLock) {
+            File temp = new File(file.getPath() + ".tmp");
+            try {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+                try {
+                    writer.write(json);
+                } finally {
+                    writer.close();
+                }
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Cannot rename " + temp + " to " + file);
+                }
+                return true;
+            } catch (IOException e) {
+                Log.e("Metrics", "Error writing metrics snapshot", e);
+                temp.delete();
+                return false;
+            }
+        }
+    }
+
+    public synchronized void startPeriodicSnapshots(File file, long intervalMillis) {
+        if (snapshotExecutor != null) {
+            return;
+        }
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "MetricsSnapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotExecutor.scheduleWithFixedDelay(() -> writeSnapshot(file),
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopPeriodicSnapshots() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+            snapshotExecutor = null;
+        }
+    }
+
+    private long gaugeValue(String name) {
+        try {
+            return gauges.get(name).value();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static List<String> sorted(Set<String> names) {
+        List<String> list = new ArrayList<>(names);
+        Collections.sort(list);
+        return list;
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.US, "%.1fms", micros / 1000.0);
+    }
+}
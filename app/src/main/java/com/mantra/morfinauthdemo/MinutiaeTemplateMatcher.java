@@ -0,0 +1,267 @@
+package com.mantra.morfinauthdemo;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Java matcher for FMR_V2011 templates: Hough-style alignment over minutia pairs, then greedy
+// pairing under the best rotation/translation. Scores run 0..1000 on the same scale as the SDK
+// threshold of 400. All working storage is per-thread, so steady-state matching allocates nothing.
+public class MinutiaeTemplateMatcher implements BufferTemplateMatcher {
+
+    public static final int ERROR_INVALID_TEMPLATE = -1;
+
+    public static final int MAX_SCORE = 1000;
+
+    private static final int ROTATION_BINS = 32;
+    private static final int ROTATION_SHIFT = 3;
+    private static final int TRANSLATION_BIN_PIXELS = 24;
+    private static final int TRANSLATION_BINS = 32;
+    private static final int TRANSLATION_RANGE = TRANSLATION_BIN_PIXELS * TRANSLATION_BINS / 2;
+
+    private static final int DISTANCE_TOLERANCE = 16;
+    private static final int ANGLE_TOLERANCE_UNITS = 16;
+    private static final int MIN_PAIRED_MINUTIAE = 4;
+
+    private static final float[] COS = new float[256];
+    private static final float[] SIN = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            double theta = i * 2 * Math.PI / 256.0;
+            COS[i] = (float) Math.cos(theta);
+            SIN[i] = (float) Math.sin(theta);
+        }
+    }
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    @Override
+    public int match(byte[] probeTemplate, byte[] galleryTemplate, int[] score) {
+        Scratch s = scratch.get();
+        score[0] = 0;
+
+        try {
+            parseProbe(probeTemplate, s);
+            FmrTemplateParser.parseInto(galleryTemplate, 0, galleryTemplate.length, s.gallery);
+        } catch (IllegalArgumentException e) {
+            s.lastProbe = null;
+            return ERROR_INVALID_TEMPLATE;
+        }
+
+        score[0] = score(s.probe, s.gallery, s);
+        return 0;
+    }
+
+    @Override
+    public int match(byte[] probeTemplate, ByteBuffer gallery, int offset, int length, int[] score) {
+        Scratch s = scratch.get();
+        score[0] = 0;
+
+        try {
+            parseProbe(probeTemplate, s);
+            FmrTemplateParser.parseInto(gallery, offset, length, s.gallery);
+        } catch (IllegalArgumentException e) {
+            s.lastProbe = null;
+            return ERROR_INVALID_TEMPLATE;
+        }
+
+        score[0] = score(s.probe, s.gallery, s);
+        return 0;
+    }
+
+    // Identification scores one probe against many candidates; skip re-parsing the same array.
+    private static void parseProbe(byte[] probeTemplate, Scratch s) {
+        if (s.lastProbe != probeTemplate) {
+            s.lastProbe = null;
+            FmrTemplateParser.parseInto(probeTemplate, 0, probeTemplate.length, s.probe);
+            s.lastProbe = probeTemplate;
+        }
+    }
+
+    public int score(FmrTemplate probe, FmrTemplate gallery) {
+        return score(probe, gallery, scratch.get());
+    }
+
+    private static int score(FmrTemplate probe, FmrTemplate gallery, Scratch s) {
+        int n = probe.viewCount > 0 ? probe.viewMinutiaCount[0] : 0;
+        int m = gallery.viewCount > 0 ? gallery.viewMinutiaCount[0] : 0;
+        if (n < MIN_PAIRED_MINUTIAE || m < MIN_PAIRED_MINUTIAE) {
+            return 0;
+        }
+        int p0 = probe.viewMinutiaStart[0];
+        int g0 = gallery.viewMinutiaStart[0];
+
+        // Rotate about the image centres so angle noise moves far-off minutiae as little as possible.
+        int pcx = probe.width(0) / 2;
+        int pcy = probe.height(0) / 2;
+        int gcx = gallery.width(0) / 2;
+        int gcy = gallery.height(0) / 2;
+
+        int[] votes = s.votes;
+        s.ensureCapacity(m, n * m);
+        int[] touched = s.touched;
+        int touchedCount = 0;
+        int bestCell = -1;
+        int bestVotes = 0;
+
+        for (int i = 0; i < n; i++) {
+            int px = probe.minutiaX[p0 + i] - pcx;
+            int py = probe.minutiaY[p0 + i] - pcy;
+            int pa = probe.minutiaAngle[p0 + i] & 0xFF;
+
+            for (int j = 0; j < m; j++) {
+                int rotation = ((gallery.minutiaAngle[g0 + j] & 0xFF) - pa) & 0xFF;
+                int cell = voteCell(px, py, gallery.minutiaX[g0 + j] - gcx, gallery.minutiaY[g0 + j] - gcy, rotation);
+                if (cell < 0) {
+                    continue;
+                }
+                int count = ++votes[cell];
+                if (count == 1) {
+                    touched[touchedCount++] = cell;
+                }
+                if (count > bestVotes) {
+                    bestVotes = count;
+                    bestCell = cell;
+                }
+            }
+        }
+
+        for (int i = 0; i < touchedCount; i++) {
+            votes[touched[i]] = 0;
+        }
+
+        if (bestVotes < MIN_PAIRED_MINUTIAE) {
+            return 0;
+        }
+
+        // Refine the winning cell: average the exact transform of the pairs that voted for it.
+        float sumCos = 0;
+        float sumSin = 0;
+        float sumDx = 0;
+        float sumDy = 0;
+        int voters = 0;
+        for (int i = 0; i < n; i++) {
+            int px = probe.minutiaX[p0 + i] - pcx;
+            int py = probe.minutiaY[p0 + i] - pcy;
+            int pa = probe.minutiaAngle[p0 + i] & 0xFF;
+
+            for (int j = 0; j < m; j++) {
+                int gx = gallery.minutiaX[g0 + j] - gcx;
+                int gy = gallery.minutiaY[g0 + j] - gcy;
+                int rotation = ((gallery.minutiaAngle[g0 + j] & 0xFF) - pa) & 0xFF;
+                if (voteCell(px, py, gx, gy, rotation) != bestCell) {
+                    continue;
+                }
+                sumCos += COS[rotation];
+                sumSin += SIN[rotation];
+                sumDx += gx - rotateX(px, py, rotation);
+                sumDy += gy - rotateY(px, py, rotation);
+                voters++;
+            }
+        }
+
+        double theta = Math.atan2(sumSin, sumCos);
+        float cos = (float) Math.cos(theta);
+        float sin = (float) Math.sin(theta);
+        float dx = sumDx / voters + gcx;
+        float dy = sumDy / voters + gcy;
+        int rotationUnits = ((int) Math.round(theta * 256 / (2 * Math.PI))) & 0xFF;
+
+        int paired = pairMinutiae(probe, p0, n, pcx, pcy, gallery, g0, m, cos, sin, dx, dy, rotationUnits, s);
+        if (paired < MIN_PAIRED_MINUTIAE) {
+            return 0;
+        }
+        return Math.min(MAX_SCORE, (int) ((long) MAX_SCORE * paired * paired / ((long) n * m)));
+    }
+
+    private static int pairMinutiae(FmrTemplate probe, int p0, int n, int pcx, int pcy,
+                                    FmrTemplate gallery, int g0, int m,
+                                    float cos, float sin, float dx, float dy, int rotationUnits, Scratch s) {
+        boolean[] used = s.used;
+        Arrays.fill(used, 0, m, false);
+
+        int limit = DISTANCE_TOLERANCE * DISTANCE_TOLERANCE;
+        int paired = 0;
+        for (int i = 0; i < n; i++) {
+            int px = probe.minutiaX[p0 + i] - pcx;
+            int py = probe.minutiaY[p0 + i] - pcy;
+            float tx = px * cos + py * sin + dx;
+            float ty = -px * sin + py * cos + dy;
+            int ta = ((probe.minutiaAngle[p0 + i] & 0xFF) + rotationUnits) & 0xFF;
+
+            int best = -1;
+            float bestDistance = limit;
+            for (int j = 0; j < m; j++) {
+                if (used[j]) {
+                    continue;
+                }
+                float ex = gallery.minutiaX[g0 + j] - tx;
+                float ey = gallery.minutiaY[g0 + j] - ty;
+                float distance = ex * ex + ey * ey;
+                if (distance > bestDistance) {
+                    continue;
+                }
+                int angleDiff = ((gallery.minutiaAngle[g0 + j] & 0xFF) - ta) & 0xFF;
+                if (angleDiff > ANGLE_TOLERANCE_UNITS && angleDiff < 256 - ANGLE_TOLERANCE_UNITS) {
+                    continue;
+                }
+                best = j;
+                bestDistance = distance;
+            }
+
+            if (best >= 0) {
+                used[best] = true;
+                paired++;
+            }
+        }
+        return paired;
+    }
+
+    // ISO/IEC 19794-2 angles run counter-clockwise with y pointing down.
+    private static float rotateX(int x, int y, int rotation) {
+        return x * COS[rotation] + y * SIN[rotation];
+    }
+
+    private static float rotateY(int x, int y, int rotation) {
+        return -x * SIN[rotation] + y * COS[rotation];
+    }
+
+    private static int voteCell(int px, int py, int gx, int gy, int rotation) {
+        int tx = (int) (gx - rotateX(px, py, rotation) + TRANSLATION_RANGE);
+        int ty = (int) (gy - rotateY(px, py, rotation) + TRANSLATION_RANGE);
+        if (tx < 0 || ty < 0) {
+            return -1;
+        }
+        int bx = tx / TRANSLATION_BIN_PIXELS;
+        int by = ty / TRANSLATION_BIN_PIXELS;
+        if (bx >= TRANSLATION_BINS || by >= TRANSLATION_BINS) {
+            return -1;
+        }
+        int rb = rotation >> ROTATION_SHIFT;
+        return (rb * TRANSLATION_BINS + by) * TRANSLATION_BINS + bx;
+    }
+
+    private static class Scratch {
+
+        final FmrTemplate probe = new FmrTemplate();
+        final FmrTemplate gallery = new FmrTemplate();
+        final int[] votes = new int[ROTATION_BINS * TRANSLATION_BINS * TRANSLATION_BINS];
+        boolean[] used = new boolean[64];
+        int[] touched = new int[64 * 64];
+        byte[] lastProbe;
+
+        void ensureCapacity(int minutiae, int pairs) {
+            if (used.length < minutiae) {
+                used = new boolean[Math.max(minutiae, used.length * 2)];
+            }
+            if (touched.length < pairs) {
+                touched = new int[Math.max(pairs, touched.length * 2)];
+            }
+        }
+    }
+}
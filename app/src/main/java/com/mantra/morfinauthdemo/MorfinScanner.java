@@ -0,0 +1,75 @@
+package com.mantra.morfinauthdemo;
+
+import android.content.Context;
+
+import com.mantra.morfinauth.DeviceInfo;
+import com.mantra.morfinauth.MorfinAuth;
+import com.mantra.morfinauth.MorfinAuth_Callback;
+import com.mantra.morfinauth.enums.DeviceModel;
+import com.mantra.morfinauth.enums.ImageFormat;
+import com.mantra.morfinauth.enums.LogLevel;
+import com.mantra.morfinauth.enums.TemplateFormat;
+
+public class MorfinScanner implements Scanner {
+
+    private final MorfinAuth morfinAuth;
+
+    public MorfinScanner(Context context, MorfinAuth_Callback callback) {
+        this.morfinAuth = new MorfinAuth(context, callback);
+    }
+
+    @Override
+    public int setLogProperties(String logPath, LogLevel level) {
+        return morfinAuth.SetLogProperties(logPath, level);
+    }
+
+    @Override
+    public int init(DeviceModel model, String clientKey, DeviceInfo info) {
+        return morfinAuth.Init(model, clientKey, info);
+    }
+
+    @Override
+    public int uninit() {
+        return morfinAuth.Uninit();
+    }
+
+    @Override
+    public int startCapture(int minQuality, int timeoutMillis) {
+        return morfinAuth.StartCapture(minQuality, timeoutMillis);
+    }
+
+    @Override
+    public int stopCapture() {
+        return morfinAuth.StopCapture();
+    }
+
+    @Override
+    public int autoCapture(int minQuality, int timeoutMillis, int[] quality, int[] nfiq) {
+        return morfinAuth.AutoCapture(minQuality, timeoutMillis, quality, nfiq);
+    }
+
+    @Override
+    public int getImage(byte[] image, int[] size, int compressionRatio, ImageFormat format) {
+        return morfinAuth.GetImage(image, size, compressionRatio, format);
+    }
+
+    @Override
+    public int getTemplate(byte[] template, int[] size, TemplateFormat format) {
+        return morfinAuth.GetTemplate(template, size, format);
+    }
+
+    @Override
+    public int matchTemplate(byte[] probeTemplate, byte[] galleryTemplate, int[] score, TemplateFormat format) {
+        return morfinAuth.MatchTemplate(probeTemplate, galleryTemplate, score, format);
+    }
+
+    @Override
+    public String getErrorMessage(int errorCode) {
+        return morfinAuth.GetErrorMessage(errorCode);
+    }
+
+    @Override
+    public void dispose() {
+        morfinAuth.Dispose();
+    }
+}
@@ -0,0 +1,485 @@
+package com.mantra.morfinauthdemo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ParallelIdentificationEngine implements IdentificationEngine {
+
+    // Default only; see setMatchThreshold().
+    public static final int MATCH_THRESHOLD = 400;
+
+    // Below this many templates per shard the hand-off costs more than it saves.
+    private static final int MIN_SHARD_SIZE = 64;
+
+    // Templates a deadline worker claims at a time: small enough to keep the search in priority order.
+    private static final int DEADLINE_CHUNK = 8;
+    private static final long DEADLINE_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final TemplateMatcher matcher;
+    private final GallerySource gallerySource;
+    private final int threadCount;
+    private final CandidatePrefilter prefilter;
+    private final HitStatistics hitStatistics;
+    private final ExecutorService workers;
+
+    private volatile int matchThreshold = MATCH_THRESHOLD;
+
+    private final AtomicLong deadlineHits = new AtomicLong();
+
+    public ParallelIdentificationEngine(TemplateMatcher matcher, GallerySource gallerySource, int threadCount) {
+        this(matcher, gallerySource, threadCount, null);
+    }
+
+    public ParallelIdentificationEngine(TemplateMatcher matcher, GallerySource gallerySource, int threadCount,
+                                        CandidatePrefilter prefilter) {
+        this(matcher, gallerySource, threadCount, prefilter, null);
+    }
+
+    public ParallelIdentificationEngine(TemplateMatcher matcher, GallerySource gallerySource, int threadCount,
+                                        CandidatePrefilter prefilter, HitStatistics hitStatistics) {
+        this.matcher = matcher;
+        this.gallerySource = gallerySource;
+        this.threadCount = Math.max(1, threadCount);
+        this.prefilter = prefilter;
+        this.hitStatistics = hitStatistics;
+        this.workers = Executors.newFixedThreadPool(this.threadCount, new WorkerThreadFactory());
+    }
+
+    @Override
+    public IdentificationResult identify(byte[] probeTemplate) {
+        List<GalleryEntry> entries = gallerySource.getEntries();
+        if (entries == null || entries.isEmpty()) {
+            return IdentificationResult.noMatch(0);
+        }
+
+        long now = System.currentTimeMillis();
+        SearchOrder order = prioritize(probeTemplate, entries, now);
+        GalleryEntry[] gallery = order.gallery;
+
+        AtomicInteger checked = new AtomicInteger(0);
+        IdentificationResult match = scan(probeTemplate, gallery, 0, order.hotCount, checked);
+        if (match == null) {
+            match = scan(probeTemplate, gallery, order.hotCount, order.primaryEnd, checked);
+        }
+        if (match == null) {
+            match = scan(probeTemplate, gallery, order.primaryEnd, order.end, checked);
+        }
+
+        boolean exhaustive = checked.get() == gallery.length;
+        if (match != null) {
+            if (hitStatistics != null) {
+                hitStatistics.recordHit(match.userId, now);
+            }
+            return new IdentificationResult(true, match.userId, match.score, checked.get(),
+                    Collections.<IdentificationResult.Candidate>emptyList(), exhaustive);
+        }
+        return IdentificationResult.noMatch(checked.get(), exhaustive);
+    }
+
+    @Override
+    public IdentificationResult identifyTopK(byte[] probeTemplate, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        List<GalleryEntry> entries = gallerySource.getEntries();
+        if (entries == null || entries.isEmpty()) {
+            return IdentificationResult.noMatch(0);
+        }
+
+        GalleryEntry[] gallery = entries.toArray(new GalleryEntry[0]);
+        int shardCount = shardCount(gallery.length);
+        AtomicInteger checked = new AtomicInteger(0);
+
+        List<Future<PriorityQueue<IdentificationResult.Candidate>>> futures = new ArrayList<>(shardCount);
+        for (int s = 0; s < shardCount; s++) {
+            int from = (int) ((long) gallery.length * s / shardCount);
+            int to = (int) ((long) gallery.length * (s + 1) / shardCount);
+            futures.add(workers.submit(new TopKShard(probeTemplate, gallery, from, to, k, checked)));
+        }
+
+        // Each worker kept its own k best; merging those is O(shards * k).
+        PriorityQueue<IdentificationResult.Candidate> best =
+                new PriorityQueue<>(k + 1, IdentificationResult.Candidate.WORST_FIRST);
+        try {
+            for (Future<PriorityQueue<IdentificationResult.Candidate>> future : futures) {
+                for (IdentificationResult.Candidate candidate : future.get()) {
+                    offer(best, k, candidate);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return IdentificationResult.noMatch(checked.get(), false);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Identification worker failed", e.getCause());
+        } finally {
+            for (Future<PriorityQueue<IdentificationResult.Candidate>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return rankedResult(best, checked.get(), checked.get() == gallery.length, System.currentTimeMillis());
+    }
+
+    @Override
+    public IdentificationResult identifyBefore(byte[] probeTemplate, int k, long deadlineNanos) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        List<GalleryEntry> entries = gallerySource.getEntries();
+        if (entries == null || entries.isEmpty()) {
+            return IdentificationResult.noMatch(0);
+        }
+
+        long now = System.currentTimeMillis();
+        SearchOrder order = prioritize(probeTemplate, entries, now);
+
+        // Workers claim small chunks from a shared cursor, so the search follows priority order.
+        AtomicInteger cursor = new AtomicInteger(0);
+        AtomicInteger checked = new AtomicInteger(0);
+        AtomicBoolean expired = new AtomicBoolean(false);
+        int workerCount = shardCount(order.end);
+
+        List<Future<PriorityQueue<IdentificationResult.Candidate>>> futures = new ArrayList<>(workerCount);
+        for (int w = 0; w < workerCount; w++) {
+            futures.add(workers.submit(new DeadlineWorker(probeTemplate, order.gallery, order.end, cursor, k,
+                    deadlineNanos, expired, checked)));
+        }
+
+        PriorityQueue<IdentificationResult.Candidate> best =
+                new PriorityQueue<>(k + 1, IdentificationResult.Candidate.WORST_FIRST);
+        try {
+            for (Future<PriorityQueue<IdentificationResult.Candidate>> future : futures) {
+                // A worker notices the deadline after at most one match call; give up on it after that.
+                long waitNanos = Math.max(0, deadlineNanos - System.nanoTime()) + DEADLINE_GRACE_NANOS;
+                try {
+                    for (IdentificationResult.Candidate candidate : future.get(waitNanos, TimeUnit.NANOSECONDS)) {
+                        offer(best, k, candidate);
+                    }
+                } catch (TimeoutException e) {
+                    expired.set(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            expired.set(true);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Identification worker failed", e.getCause());
+        } finally {
+            for (Future<PriorityQueue<IdentificationResult.Candidate>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        boolean exhaustive = !expired.get() && checked.get() == order.gallery.length;
+        if (expired.get()) {
+            deadlineHits.incrementAndGet();
+        }
+        return rankedResult(best, checked.get(), exhaustive, now);
+    }
+
+    @Override
+    public long getDeadlineHits() {
+        return deadlineHits.get();
+    }
+
+    // Hot users first, then the prefilter ranking; end excludes the pruned tail when fallback is off.
+    private SearchOrder prioritize(byte[] probeTemplate, List<GalleryEntry> entries, long nowMillis) {
+        GalleryEntry[] gallery = entries.toArray(new GalleryEntry[0]);
+        int hotCount = hitStatistics != null ? hitStatistics.moveHotToFront(gallery, nowMillis) : 0;
+
+        int primaryEnd = gallery.length;
+        int end = gallery.length;
+        if (prefilter != null && hotCount < gallery.length) {
+            GalleryEntry[] cold = Arrays.copyOfRange(gallery, hotCount, gallery.length);
+            CandidatePrefilter.CandidateSelection selection = prefilter.select(probeTemplate, cold);
+            System.arraycopy(selection.ordered, 0, gallery, hotCount, cold.length);
+            primaryEnd = hotCount + selection.primaryCount;
+            if (!prefilter.isExhaustiveFallback()) {
+                end = primaryEnd;
+            }
+        }
+        return new SearchOrder(gallery, hotCount, primaryEnd, end);
+    }
+
+    private IdentificationResult rankedResult(PriorityQueue<IdentificationResult.Candidate> best, int checked,
+                                              boolean exhaustive, long nowMillis) {
+        IdentificationResult.Candidate[] ranked = best.toArray(new IdentificationResult.Candidate[0]);
+        Arrays.sort(ranked, Collections.reverseOrder(IdentificationResult.Candidate.WORST_FIRST));
+        List<IdentificationResult.Candidate> candidates = Arrays.asList(ranked);
+
+        if (ranked.length > 0 && ranked[0].score >= matchThreshold) {
+            if (hitStatistics != null) {
+                hitStatistics.recordHit(ranked[0].userId, nowMillis);
+            }
+            return new IdentificationResult(true, ranked[0].userId, ranked[0].score, checked, candidates, exhaustive);
+        }
+        return new IdentificationResult(false, null, 0, checked, candidates, exhaustive);
+    }
+
+    @Override
+    public void setMatchThreshold(int threshold) {
+        matchThreshold = threshold;
+    }
+
+    @Override
+    public int getMatchThreshold() {
+        return matchThreshold;
+    }
+
+    private int shardCount(int length) {
+        return Math.max(1, Math.min(threadCount, (length + MIN_SHARD_SIZE - 1) / MIN_SHARD_SIZE));
+    }
+
+    private static void offer(PriorityQueue<IdentificationResult.Candidate> heap, int k,
+                              IdentificationResult.Candidate candidate) {
+        if (heap.size() < k) {
+            heap.add(candidate);
+        } else if (IdentificationResult.Candidate.WORST_FIRST.compare(candidate, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(candidate);
+        }
+    }
+
+    private IdentificationResult scan(byte[] probeTemplate, GalleryEntry[] gallery, int start, int end,
+                                      AtomicInteger checked) {
+        int length = end - start;
+        if (length <= 0) {
+            return null;
+        }
+        int shardCount = shardCount(length);
+        int threshold = matchThreshold;
+
+        AtomicBoolean found = new AtomicBoolean(false);
+
+        CompletionService<IdentificationResult> completion = new ExecutorCompletionService<>(workers);
+        List<Future<IdentificationResult>> futures = new ArrayList<>(shardCount);
+        for (int s = 0; s < shardCount; s++) {
+            int from = start + (int) ((long) length * s / shardCount);
+            int to = start + (int) ((long) length * (s + 1) / shardCount);
+            futures.add(completion.submit(new Shard(probeTemplate, gallery, from, to, threshold, found, checked)));
+        }
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                IdentificationResult result = completion.take().get();
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Identification worker failed", e.getCause());
+        } finally {
+            found.set(true);
+            for (Future<IdentificationResult> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private class Shard implements Callable<IdentificationResult> {
+
+        private final byte[] probeTemplate;
+        private final GalleryEntry[] gallery;
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final AtomicBoolean found;
+        private final AtomicInteger checked;
+
+        Shard(byte[] probeTemplate, GalleryEntry[] gallery, int from, int to, int threshold,
+              AtomicBoolean found, AtomicInteger checked) {
+            this.probeTemplate = probeTemplate;
+            this.gallery = gallery;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.found = found;
+            this.checked = checked;
+        }
+
+        @Override
+        public IdentificationResult call() {
+            int[] score = new int[1];
+            int scanned = 0;
+            try {
+                for (int i = from; i < to; i++) {
+                    if (found.get() || Thread.currentThread().isInterrupted()) {
+                        return null;
+                    }
+
+                    GalleryEntry entry = gallery[i];
+                    score[0] = 0;
+                    int ret = entry.matchWith(matcher, probeTemplate, score);
+                    scanned++;
+
+                    if (ret == 0 && score[0] >= threshold && found.compareAndSet(false, true)) {
+                        return new IdentificationResult(true, entry.userId, score[0], 0);
+                    }
+                }
+                return null;
+            } finally {
+                checked.addAndGet(scanned);
+            }
+        }
+    }
+
+    private class TopKShard implements Callable<PriorityQueue<IdentificationResult.Candidate>> {
+
+        private final byte[] probeTemplate;
+        private final GalleryEntry[] gallery;
+        private final int from;
+        private final int to;
+        private final int k;
+        private final AtomicInteger checked;
+
+        TopKShard(byte[] probeTemplate, GalleryEntry[] gallery, int from, int to, int k, AtomicInteger checked) {
+            this.probeTemplate = probeTemplate;
+            this.gallery = gallery;
+            this.from = from;
+            this.to = to;
+            this.k = k;
+            this.checked = checked;
+        }
+
+        @Override
+        public PriorityQueue<IdentificationResult.Candidate> call() {
+            PriorityQueue<IdentificationResult.Candidate> heap =
+                    new PriorityQueue<>(k + 1, IdentificationResult.Candidate.WORST_FIRST);
+            int[] score = new int[1];
+            int scanned = 0;
+            try {
+                for (int i = from; i < to; i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+
+                    GalleryEntry entry = gallery[i];
+                    score[0] = 0;
+                    int ret = entry.matchWith(matcher, probeTemplate, score);
+                    scanned++;
+
+                    // Skip the allocation for rows that cannot enter a full heap.
+                    if (ret != 0 || score[0] <= 0 || (heap.size() == k && score[0] < heap.peek().score)) {
+                        continue;
+                    }
+                    offer(heap, k, new IdentificationResult.Candidate(entry.userId, score[0]));
+                }
+                return heap;
+            } finally {
+                checked.addAndGet(scanned);
+            }
+        }
+    }
+
+    private class DeadlineWorker implements Callable<PriorityQueue<IdentificationResult.Candidate>> {
+
+        private final byte[] probeTemplate;
+        private final GalleryEntry[] gallery;
+        private final int end;
+        private final AtomicInteger cursor;
+        private final int k;
+        private final long deadlineNanos;
+        private final AtomicBoolean expired;
+        private final AtomicInteger checked;
+
+        DeadlineWorker(byte[] probeTemplate, GalleryEntry[] gallery, int end, AtomicInteger cursor, int k,
+                       long deadlineNanos, AtomicBoolean expired, AtomicInteger checked) {
+            this.probeTemplate = probeTemplate;
+            this.gallery = gallery;
+            this.end = end;
+            this.cursor = cursor;
+            this.k = k;
+            this.deadlineNanos = deadlineNanos;
+            this.expired = expired;
+            this.checked = checked;
+        }
+
+        @Override
+        public PriorityQueue<IdentificationResult.Candidate> call() {
+            PriorityQueue<IdentificationResult.Candidate> heap =
+                    new PriorityQueue<>(k + 1, IdentificationResult.Candidate.WORST_FIRST);
+            int[] score = new int[1];
+            int scanned = 0;
+            try {
+                for (int chunk = cursor.getAndAdd(DEADLINE_CHUNK); chunk < end;
+                     chunk = cursor.getAndAdd(DEADLINE_CHUNK)) {
+                    int chunkEnd = Math.min(end, chunk + DEADLINE_CHUNK);
+                    for (int i = chunk; i < chunkEnd; i++) {
+                        if (System.nanoTime() - deadlineNanos >= 0) {
+                            expired.set(true);
+                            return heap;
+                        }
+                        if (expired.get() || Thread.currentThread().isInterrupted()) {
+                            return heap;
+                        }
+
+                        GalleryEntry entry = gallery[i];
+                        score[0] = 0;
+                        int ret = entry.matchWith(matcher, probeTemplate, score);
+                        scanned++;
+
+                        if (ret != 0 || score[0] <= 0 || (heap.size() == k && score[0] < heap.peek().score)) {
+                            continue;
+                        }
+                        offer(heap, k, new IdentificationResult.Candidate(entry.userId, score[0]));
+                    }
+                }
+                return heap;
+            } finally {
+                checked.addAndGet(scanned);
+            }
+        }
+    }
+
+    private static class SearchOrder {
+
+        final GalleryEntry[] gallery;
+        final int hotCount;
+        final int primaryEnd;
+        final int end;
+
+        SearchOrder(GalleryEntry[] gallery, int hotCount, int primaryEnd, int end) {
+            this.gallery = gallery;
+            this.hotCount = hotCount;
+            this.primaryEnd = primaryEnd;
+            this.end = end;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Identify-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
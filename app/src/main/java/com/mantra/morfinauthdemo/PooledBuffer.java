@@ -0,0 +1,51 @@
+package com.mantra.morfinauthdemo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class PooledBuffer {
+
+    private final BufferPool owner;
+    private byte[] data;
+    private int length;
+
+    PooledBuffer(BufferPool owner, byte[] data) {
+        this.owner = owner;
+        this.data = data;
+    }
+
+    public byte[] array() {
+        if (data == null) {
+            throw new IllegalStateException("Buffer already released");
+        }
+        return data;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        if (length < 0 || length > array().length) {
+            throw new IllegalArgumentException("Invalid length " + length + " for buffer of " + array().length);
+        }
+        this.length = length;
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        os.write(array(), 0, length);
+    }
+
+    public byte[] copy() {
+        return Arrays.copyOf(array(), length);
+    }
+
+    public synchronized void release() {
+        if (data != null) {
+            owner.recycle(data);
+            data = null;
+            length = 0;
+        }
+    }
+}
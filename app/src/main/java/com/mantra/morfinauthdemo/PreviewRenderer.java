@@ -0,0 +1,138 @@
+package com.mantra.morfinauthdemo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PreviewRenderer {
+
+    private static final int BMP_FILE_HEADER_SIZE = 14;
+
+    private final AtomicBoolean framePending = new AtomicBoolean(false);
+    private final Bitmap[] bitmaps = new Bitmap[2];
+    private final int[] palette = new int[256];
+    private int backIndex = 0;
+
+    private int width;
+    private int height;
+    private int pixelOffset;
+    private int stride;
+    private boolean bottomUp;
+    private int[] pixels;
+    private long skippedFrames;
+
+    // Called on the SDK preview thread. Returns null when the UI has not shown the previous frame yet.
+    public synchronized Bitmap render(byte[] bmp) {
+        if (!framePending.compareAndSet(false, true)) {
+            skippedFrames++;
+            return null;
+        }
+
+        if (!parseHeader(bmp)) {
+            Bitmap decoded = BitmapFactory.decodeByteArray(bmp, 0, bmp.length);
+            if (decoded == null) {
+                framePending.set(false);
+            }
+            return decoded;
+        }
+
+        Bitmap target = bitmaps[backIndex];
+        if (target == null) {
+            target = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmaps[backIndex] = target;
+        }
+
+        int[] out = pixels;
+        for (int row = 0; row < height; row++) {
+            int src = pixelOffset + (bottomUp ? height - 1 - row : row) * stride;
+            int dst = row * width;
+            for (int col = 0; col < width; col++) {
+                out[dst + col] = palette[bmp[src + col] & 0xFF];
+            }
+        }
+        target.setPixels(out, 0, width, 0, 0, width, height);
+
+        backIndex ^= 1;
+        return target;
+    }
+
+    // Called on the UI thread once the returned bitmap is attached to the view.
+    public void onFrameDisplayed() {
+        framePending.set(false);
+    }
+
+    public synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public synchronized void reset() {
+        bitmaps[0] = null;
+        bitmaps[1] = null;
+        pixels = null;
+        width = 0;
+        height = 0;
+        pixelOffset = 0;
+        framePending.set(false);
+    }
+
+    private boolean parseHeader(byte[] bmp) {
+        if (bmp.length < BMP_FILE_HEADER_SIZE + 40 || bmp[0] != 'B' || bmp[1] != 'M') {
+            return false;
+        }
+
+        int bitsPerPixel = readShort(bmp, 28);
+        int compression = readInt(bmp, 30);
+        if (bitsPerPixel != 8 || compression != 0) {
+            return false;
+        }
+
+        int newWidth = readInt(bmp, 18);
+        int rawHeight = readInt(bmp, 22);
+        int newHeight = Math.abs(rawHeight);
+        int newOffset = readInt(bmp, 10);
+        int newStride = (newWidth + 3) & ~3;
+        if (newWidth <= 0 || newHeight == 0 || newOffset + (long) newStride * newHeight > bmp.length) {
+            return false;
+        }
+
+        if (newWidth != width || newHeight != height) {
+            width = newWidth;
+            height = newHeight;
+            pixels = new int[width * height];
+            bitmaps[0] = null;
+            bitmaps[1] = null;
+            pixelOffset = -1;
+        }
+        if (newOffset != pixelOffset) {
+            pixelOffset = newOffset;
+            readPalette(bmp);
+        }
+        stride = newStride;
+        bottomUp = rawHeight > 0;
+        return true;
+    }
+
+    private void readPalette(byte[] bmp) {
+        int paletteOffset = BMP_FILE_HEADER_SIZE + readInt(bmp, 14);
+        int colors = readInt(bmp, 46);
+        if (colors <= 0 || colors > 256) {
+            colors = 256;
+        }
+
+        for (int i = 0; i < 256; i++) {
+            int entry = paletteOffset + i * 4;
+            int gray = (i < colors && entry + 2 < pixelOffset) ? bmp[entry + 1] & 0xFF : i;
+            palette[i] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+        }
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 |
+                (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+    }
+}
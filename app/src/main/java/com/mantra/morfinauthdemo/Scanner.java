@@ -0,0 +1,40 @@
+package com.mantra.morfinauthdemo;
+
+import com.mantra.morfinauth.DeviceInfo;
+import com.mantra.morfinauth.enums.DeviceModel;
+import com.mantra.morfinauth.enums.ImageFormat;
+import com.mantra.morfinauth.enums.LogLevel;
+import com.mantra.morfinauth.enums.TemplateFormat;
+
+// The MorfinAuth surface the app uses. Return codes and MorfinAuth_Callback events follow the SDK,
+// so capture code behaves the same against MorfinScanner and SimulatedScanner.
+public interface Scanner {
+
+    int SUCCESS = 0;
+    int ERROR_TIMEOUT = -2019;
+    int ERROR_DEVICE_NOT_CONNECTED = -2057;
+
+    int setLogProperties(String logPath, LogLevel level);
+
+    int init(DeviceModel model, String clientKey, DeviceInfo info);
+
+    int uninit();
+
+    // Asynchronous: frames arrive through OnPreview, the result through OnComplete.
+    int startCapture(int minQuality, int timeoutMillis);
+
+    int stopCapture();
+
+    // Blocks until a finger is captured or the timeout expires.
+    int autoCapture(int minQuality, int timeoutMillis, int[] quality, int[] nfiq);
+
+    int getImage(byte[] image, int[] size, int compressionRatio, ImageFormat format);
+
+    int getTemplate(byte[] template, int[] size, TemplateFormat format);
+
+    int matchTemplate(byte[] probeTemplate, byte[] galleryTemplate, int[] score, TemplateFormat format);
+
+    String getErrorMessage(int errorCode);
+
+    void dispose();
+}
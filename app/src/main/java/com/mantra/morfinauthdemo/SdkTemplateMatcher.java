@@ -0,0 +1,25 @@
+package com.mantra.morfinauthdemo;
+
+import com.mantra.morfinauth.enums.TemplateFormat;
+
+// The SDK does not document MatchTemplate as re-entrant, so matches on one scanner run one at a time.
+public class SdkTemplateMatcher implements TemplateMatcher {
+
+    private final Scanner scanner;
+
+    public SdkTemplateMatcher(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    @Override
+    public int match(byte[] probeTemplate, byte[] galleryTemplate, int[] score) {
+        synchronized (scanner) {
+            return scanner.matchTemplate(
+                    probeTemplate,
+                    galleryTemplate,
+                    score,
+                    TemplateFormat.FMR_V2011
+            );
+        }
+    }
+}
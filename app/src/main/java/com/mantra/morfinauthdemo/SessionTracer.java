@@ -0,0 +1,170 @@
+package com.mantra.morfinauthdemo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Timeline of one capture session. Spans go into a fixed-size lock-free ring (the oldest are overwritten)
+// and are exported as Chrome trace-event JSON, which Perfetto and chrome://tracing open directly.
+public class SessionTracer {
+
+    public static final SessionTracer DISABLED = new SessionTracer(0);
+
+    private static final String CATEGORY = "capture";
+
+    private final AtomicReferenceArray<Span> ring;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+    private final long originNanos = System.nanoTime();
+
+    public SessionTracer(int capacity) {
+        int size = capacity <= 1 ? Math.max(0, capacity) : Integer.highestOneBit(capacity - 1) << 1;
+        ring = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    public boolean isEnabled() {
+        return ring.length() > 0;
+    }
+
+    // A span from startNanos (System.nanoTime()) until now.
+    public void complete(String name, long startNanos) {
+        complete(name, startNanos, null);
+    }
+
+    public void complete(String name, long startNanos, String detail) {
+        if (isEnabled()) {
+            long now = System.nanoTime();
+            record(new Span(name, detail, startNanos - originNanos, now - startNanos, Thread.currentThread()));
+        }
+    }
+
+    public void instant(String name, String detail) {
+        if (isEnabled()) {
+            record(new Span(name, detail, System.nanoTime() - originNanos, -1, Thread.currentThread()));
+        }
+    }
+
+    public int size() {
+        return (int) Math.min(cursor.get(), ring.length());
+    }
+
+    // Spans overwritten because the session outgrew the ring.
+    public long getDroppedCount() {
+        return Math.max(0, cursor.get() - ring.length());
+    }
+
+    public String toJson() {
+        List<Span> spans = spans();
+        Map<Long, String> threads = new LinkedHashMap<>();
+        StringBuilder json = new StringBuilder(spans.size() * 120 + 64);
+        json.append("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+
+        boolean first = true;
+        for (Span span : spans) {
+            threads.put(span.threadId, span.threadName);
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"name\":");
+            appendString(json, span.name);
+            json.append(",\"cat\":\"").append(CATEGORY).append('"');
+            if (span.durationNanos >= 0) {
+                json.append(",\"ph\":\"X\",\"dur\":").append(span.durationNanos / 1000);
+            } else {
+                json.append(",\"ph\":\"i\",\"s\":\"t\"");
+            }
+            json.append(",\"ts\":").append(span.startNanos / 1000);
+            json.append(",\"pid\":1,\"tid\":").append(span.threadId);
+            if (span.detail != null) {
+                json.append(",\"args\":{\"detail\":");
+                appendString(json, span.detail);
+                json.append('}');
+            }
+            json.append('}');
+        }
+
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(thread.getKey())
+                    .append(",\"args\":{\"name\":");
+            appendString(json, thread.getValue());
+            json.append("}}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    public void writeTo(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void record(Span span) {
+        ring.set((int) (cursor.getAndIncrement() & mask), span);
+    }
+
+    // Oldest first. Meant for after the session; spans written during the copy may be missed.
+    private List<Span> spans() {
+        long end = cursor.get();
+        long start = Math.max(0, end - ring.length());
+        List<Span> spans = new ArrayList<>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            Span span = ring.get((int) (i & mask));
+            if (span != null) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static class Span {
+
+        final String name;
+        final String detail;
+        final long startNanos;
+        final long durationNanos;
+        final long threadId;
+        final String threadName;
+
+        Span(String name, String detail, long startNanos, long durationNanos, Thread thread) {
+            this.name = name;
+            this.detail = detail;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+        }
+    }
+}
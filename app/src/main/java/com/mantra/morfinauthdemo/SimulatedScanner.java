@@ -0,0 +1,452 @@
+package com.mantra.morfinauthdemo;
+
+import com.mantra.morfinauth.DeviceInfo;
+import com.mantra.morfinauth.MorfinAuth_Callback;
+import com.mantra.morfinauth.enums.DeviceDetection;
+import com.mantra.morfinauth.enums.DeviceModel;
+import com.mantra.morfinauth.enums.ImageFormat;
+import com.mantra.morfinauth.enums.LogLevel;
+import com.mantra.morfinauth.enums.TemplateFormat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Scanner without hardware: replays a recorded corpus of BMP images and FMR_V2011 templates with
+// configurable capture latency, timeouts (-2019) and disconnects (-2057). Matching uses the Java matcher.
+public class SimulatedScanner implements Scanner {
+
+    // Simulator-only codes for states the SDK reports with codes we do not replicate.
+    public static final int ERROR_NOT_INITIALIZED = -9001;
+    public static final int ERROR_CAPTURE_STOPPED = -9002;
+    public static final int ERROR_CAPTURE_RUNNING = -9003;
+    public static final int ERROR_NO_CAPTURE = -9004;
+    public static final int ERROR_UNSUPPORTED_FORMAT = -9005;
+    public static final int ERROR_BUFFER_TOO_SMALL = -9006;
+
+    public static final String SERIAL_NUMBER = "SIM-0001";
+
+    private final MorfinAuth_Callback callback;
+    private final List<Sample> corpus;
+    private final Random random;
+    private final MinutiaeTemplateMatcher matcher = new MinutiaeTemplateMatcher();
+    private final Object lock = new Object();
+
+    private DeviceModel model = DeviceModel.MFS500;
+    private long minLatencyMillis = 300;
+    private long maxLatencyMillis = 600;
+    private long previewIntervalMillis = 60;
+    private long timeoutDelayMillis = -1;
+    private double timeoutRate;
+    private double disconnectRate;
+
+    private boolean connected;
+    private boolean initialized;
+    private boolean captureRunning;
+    private boolean stopRequested;
+    private int nextSample;
+    private Sample current;
+
+    public SimulatedScanner(MorfinAuth_Callback callback, List<Sample> corpus, long seed) {
+        if (corpus.isEmpty()) {
+            throw new IllegalArgumentException("Corpus is empty");
+        }
+        this.callback = callback;
+        this.corpus = new ArrayList<>(corpus);
+        this.random = new Random(seed);
+    }
+
+    public SimulatedScanner setModel(DeviceModel model) {
+        synchronized (lock) {
+            this.model = model;
+        }
+        return this;
+    }
+
+    public SimulatedScanner setCaptureLatency(long minMillis, long maxMillis) {
+        synchronized (lock) {
+            this.minLatencyMillis = Math.max(0, minMillis);
+            this.maxLatencyMillis = Math.max(this.minLatencyMillis, maxMillis);
+        }
+        return this;
+    }
+
+    public SimulatedScanner setPreviewInterval(long millis) {
+        synchronized (lock) {
+            this.previewIntervalMillis = Math.max(1, millis);
+        }
+        return this;
+    }
+
+    // How long a simulated timeout waits; -1 waits the full timeout the caller asked for.
+    public SimulatedScanner setTimeoutDelay(long millis) {
+        synchronized (lock) {
+            this.timeoutDelayMillis = millis;
+        }
+        return this;
+    }
+
+    // Fraction of captures that end with ERROR_TIMEOUT and ERROR_DEVICE_NOT_CONNECTED.
+    public SimulatedScanner setFailureRates(double timeoutRate, double disconnectRate) {
+        synchronized (lock) {
+            this.timeoutRate = timeoutRate;
+            this.disconnectRate = disconnectRate;
+        }
+        return this;
+    }
+
+    public void connect() {
+        DeviceModel connectedModel;
+        synchronized (lock) {
+            connected = true;
+            connectedModel = model;
+        }
+        callback.OnDeviceDetection(connectedModel.name(), DeviceDetection.CONNECTED);
+    }
+
+    public void disconnect() {
+        DeviceModel disconnectedModel;
+        synchronized (lock) {
+            if (!connected) {
+                return;
+            }
+            connected = false;
+            initialized = false;
+            stopRequested = true;
+            disconnectedModel = model;
+            lock.notifyAll();
+        }
+        callback.OnDeviceDetection(disconnectedModel.name(), DeviceDetection.DISCONNECTED);
+    }
+
+    @Override
+    public int setLogProperties(String logPath, LogLevel level) {
+        return SUCCESS;
+    }
+
+    @Override
+    public int init(DeviceModel model, String clientKey, DeviceInfo info) {
+        synchronized (lock) {
+            if (!connected) {
+                return ERROR_DEVICE_NOT_CONNECTED;
+            }
+            Sample first = corpus.get(0);
+            info.Make = "Simulated";
+            info.Model = model.name();
+            info.SerialNo = SERIAL_NUMBER;
+            info.Width = first.width();
+            info.Height = first.height();
+            initialized = true;
+            return SUCCESS;
+        }
+    }
+
+    @Override
+    public int uninit() {
+        synchronized (lock) {
+            initialized = false;
+            stopRequested = true;
+            current = null;
+            lock.notifyAll();
+            return SUCCESS;
+        }
+    }
+
+    @Override
+    public int startCapture(int minQuality, int timeoutMillis) {
+        synchronized (lock) {
+            int state = beginCapture();
+            if (state != SUCCESS) {
+                return state;
+            }
+        }
+
+        Thread thread = new Thread(() -> {
+            int[] quality = new int[1];
+            int[] nfiq = new int[1];
+            int ret = capture(minQuality, timeoutMillis, quality, nfiq, true);
+            callback.OnComplete(ret, quality[0], nfiq[0]);
+        }, "SimulatedCapture");
+        thread.setDaemon(true);
+        thread.start();
+        return SUCCESS;
+    }
+
+    @Override
+    public int stopCapture() {
+        synchronized (lock) {
+            stopRequested = true;
+            lock.notifyAll();
+            return SUCCESS;
+        }
+    }
+
+    @Override
+    public int autoCapture(int minQuality, int timeoutMillis, int[] quality, int[] nfiq) {
+        synchronized (lock) {
+            int state = beginCapture();
+            if (state != SUCCESS) {
+                return state;
+            }
+        }
+        return capture(minQuality, timeoutMillis, quality, nfiq, false);
+    }
+
+    @Override
+    public int getImage(byte[] image, int[] size, int compressionRatio, ImageFormat format) {
+        Sample sample;
+        synchronized (lock) {
+            sample = current;
+        }
+        if (sample == null) {
+            return ERROR_NO_CAPTURE;
+        }
+        if (format != ImageFormat.BMP) {
+            return ERROR_UNSUPPORTED_FORMAT;
+        }
+        return copy(sample.image, image, size);
+    }
+
+    @Override
+    public int getTemplate(byte[] template, int[] size, TemplateFormat format) {
+        Sample sample;
+        synchronized (lock) {
+            sample = current;
+        }
+        if (sample == null) {
+            return ERROR_NO_CAPTURE;
+        }
+        if (format != TemplateFormat.FMR_V2011) {
+            return ERROR_UNSUPPORTED_FORMAT;
+        }
+        return copy(sample.template, template, size);
+    }
+
+    @Override
+    public int matchTemplate(byte[] probeTemplate, byte[] galleryTemplate, int[] score, TemplateFormat format) {
+        if (format != TemplateFormat.FMR_V2011) {
+            return ERROR_UNSUPPORTED_FORMAT;
+        }
+        return matcher.match(probeTemplate, galleryTemplate, score);
+    }
+
+    @Override
+    public String getErrorMessage(int errorCode) {
+        switch (errorCode) {
+            case SUCCESS:
+                return "Success";
+            case ERROR_TIMEOUT:
+                return "Capture timeout";
+            case ERROR_DEVICE_NOT_CONNECTED:
+                return "Device not connected";
+            case ERROR_NOT_INITIALIZED:
+                return "Device not initialized";
+            case ERROR_CAPTURE_STOPPED:
+                return "Capture stopped";
+            case ERROR_CAPTURE_RUNNING:
+                return "Capture already running";
+            case ERROR_NO_CAPTURE:
+                return "No captured finger";
+            case ERROR_UNSUPPORTED_FORMAT:
+                return "Format not supported by simulator";
+            case ERROR_BUFFER_TOO_SMALL:
+                return "Buffer too small";
+            default:
+                return "Unknown error " + errorCode;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (lock) {
+            connected = false;
+            initialized = false;
+            stopRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    // Called with lock held.
+    private int beginCapture() {
+        if (!connected) {
+            return ERROR_DEVICE_NOT_CONNECTED;
+        }
+        if (!initialized) {
+            return ERROR_NOT_INITIALIZED;
+        }
+        if (captureRunning) {
+            return ERROR_CAPTURE_RUNNING;
+        }
+        captureRunning = true;
+        stopRequested = false;
+        return SUCCESS;
+    }
+
+    private int capture(int minQuality, int timeoutMillis, int[] quality, int[] nfiq, boolean preview) {
+        Sample sample;
+        long latency;
+        long timeoutDelay;
+        double outcome;
+        synchronized (lock) {
+            sample = corpus.get(nextSample);
+            nextSample = (nextSample + 1) % corpus.size();
+            latency = minLatencyMillis + (long) (random.nextDouble() * (maxLatencyMillis - minLatencyMillis));
+            timeoutDelay = timeoutDelayMillis >= 0 ? timeoutDelayMillis : timeoutMillis;
+            outcome = random.nextDouble();
+        }
+
+        try {
+            if (outcome < disconnectRate) {
+                if (!await(latency / 2, sample, preview)) {
+                    return ERROR_CAPTURE_STOPPED;
+                }
+                disconnect();
+                return ERROR_DEVICE_NOT_CONNECTED;
+            }
+
+            if (outcome < disconnectRate + timeoutRate || sample.quality < minQuality) {
+                if (!await(timeoutDelay, sample, preview)) {
+                    return stoppedResult();
+                }
+                return ERROR_TIMEOUT;
+            }
+
+            if (!await(latency, sample, preview)) {
+                return stoppedResult();
+            }
+
+            synchronized (lock) {
+                current = sample;
+            }
+            quality[0] = sample.quality;
+            nfiq[0] = sample.nfiq;
+            return SUCCESS;
+        } finally {
+            synchronized (lock) {
+                captureRunning = false;
+            }
+        }
+    }
+
+    private int stoppedResult() {
+        synchronized (lock) {
+            return connected ? ERROR_CAPTURE_STOPPED : ERROR_DEVICE_NOT_CONNECTED;
+        }
+    }
+
+    // Waits out a simulated delay, sending preview frames if asked. False when stopped or disconnected.
+    private boolean await(long millis, Sample sample, boolean preview) {
+        long deadline = System.currentTimeMillis() + millis;
+        while (true) {
+            long step;
+            synchronized (lock) {
+                if (stopRequested || !connected) {
+                    return false;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return true;
+                }
+                step = preview ? Math.min(remaining, previewIntervalMillis) : remaining;
+                try {
+                    lock.wait(step);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                if (stopRequested || !connected) {
+                    return false;
+                }
+            }
+            if (preview) {
+                callback.OnPreview(SUCCESS, sample.quality, sample.image);
+            }
+        }
+    }
+
+    private static int copy(byte[] source, byte[] target, int[] size) {
+        if (target.length < source.length) {
+            return ERROR_BUFFER_TOO_SMALL;
+        }
+        System.arraycopy(source, 0, target, 0, source.length);
+        size[0] = source.length;
+        return SUCCESS;
+    }
+
+    public static class Sample {
+
+        public static final int DEFAULT_QUALITY = 80;
+        public static final int DEFAULT_NFIQ = 2;
+
+        public final byte[] image;
+        public final byte[] template;
+        public final int quality;
+        public final int nfiq;
+
+        public Sample(byte[] image, byte[] template, int quality, int nfiq) {
+            this.image = image;
+            this.template = template;
+            this.quality = quality;
+            this.nfiq = nfiq;
+        }
+
+        int width() {
+            return image.length >= 26 ? readInt(image, 18) : 0;
+        }
+
+        int height() {
+            return image.length >= 26 ? Math.abs(readInt(image, 22)) : 0;
+        }
+
+        // A recorded corpus is a directory of name.bmp images, each with a name.fmr FMR_V2011 template.
+        public static List<Sample> loadCorpus(File directory) throws IOException {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                throw new IOException("Cannot list " + directory);
+            }
+            Arrays.sort(files);
+
+            List<Sample> samples = new ArrayList<>();
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(".bmp")) {
+                    continue;
+                }
+                File template = new File(directory, name.substring(0, name.length() - 4) + ".fmr");
+                if (!template.isFile()) {
+                    continue;
+                }
+                samples.add(new Sample(readFile(file), readFile(template), DEFAULT_QUALITY, DEFAULT_NFIQ));
+            }
+            return samples;
+        }
+
+        private static byte[] readFile(File file) throws IOException {
+            byte[] data = new byte[(int) file.length()];
+            InputStream in = new FileInputStream(file);
+            try {
+                int read = 0;
+                while (read < data.length) {
+                    int n = in.read(data, read, data.length - read);
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of " + file);
+                    }
+                    read += n;
+                }
+            } finally {
+                in.close();
+            }
+            return data;
+        }
+
+        private static int readInt(byte[] b, int offset) {
+            return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 |
+                    (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+        }
+    }
+}
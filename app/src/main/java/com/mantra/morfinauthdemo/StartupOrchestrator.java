@@ -0,0 +1,164 @@
+package com.mantra.morfinauthdemo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs startup phases on background threads, each as soon as its prerequisites finish, and reports
+// every phase (with its duration) through the callback executor, normally the UI thread.
+public class StartupOrchestrator {
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    public interface Listener {
+        // error is null on success; a phase whose prerequisite failed reports that failure too.
+        void onPhaseFinished(String phase, long durationMillis, Throwable error);
+    }
+
+    private final Executor callbackExecutor;
+    private final Listener listener;
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private final long startNanos = System.nanoTime();
+    private ExecutorService executor;
+
+    public StartupOrchestrator(Executor callbackExecutor, Listener listener) {
+        this.callbackExecutor = callbackExecutor;
+        this.listener = listener;
+    }
+
+    public synchronized void addPhase(String name, Task task, String... prerequisites) {
+        if (executor != null) {
+            throw new IllegalStateException("Startup already running");
+        }
+        List<Phase> required = new ArrayList<>(prerequisites.length);
+        for (String prerequisite : prerequisites) {
+            Phase phase = phases.get(prerequisite);
+            if (phase == null) {
+                throw new IllegalArgumentException("Unknown prerequisite " + prerequisite + " for " + name);
+            }
+            required.add(phase);
+        }
+        phases.put(name, new Phase(name, task, required));
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, phases.size()), new StartupThreadFactory());
+        for (final Phase phase : phases.values()) {
+            executor.execute(phase::run);
+        }
+        executor.shutdown();
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isComplete(String name) {
+        Phase phase = phase(name);
+        return phase.done.getCount() == 0 && phase.error == null;
+    }
+
+    // -1 until the phase has finished.
+    public long getDurationMillis(String name) {
+        Phase phase = phase(name);
+        return phase.done.getCount() == 0 ? phase.durationMillis : -1;
+    }
+
+    // Milliseconds since the orchestrator was created, for startup KPIs measured from onCreate.
+    public long elapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    public synchronized String describeTimings() {
+        StringBuilder text = new StringBuilder();
+        for (Phase phase : phases.values()) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(phase.name).append('=');
+            if (phase.done.getCount() != 0) {
+                text.append("pending");
+            } else if (phase.error != null) {
+                text.append("failed");
+            } else {
+                text.append(phase.durationMillis).append("ms");
+            }
+        }
+        return text.toString();
+    }
+
+    private synchronized Phase phase(String name) {
+        Phase phase = phases.get(name);
+        if (phase == null) {
+            throw new IllegalArgumentException("Unknown phase " + name);
+        }
+        return phase;
+    }
+
+    private class Phase {
+
+        final String name;
+        final Task task;
+        final List<Phase> prerequisites;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile long durationMillis;
+        volatile Throwable error;
+
+        Phase(String name, Task task, List<Phase> prerequisites) {
+            this.name = name;
+            this.task = task;
+            this.prerequisites = prerequisites;
+        }
+
+        void run() {
+            Throwable failure = null;
+            long started = 0;
+            try {
+                for (Phase prerequisite : prerequisites) {
+                    prerequisite.done.await();
+                    if (prerequisite.error != null) {
+                        throw prerequisite.error;
+                    }
+                }
+                started = System.nanoTime();
+                task.run();
+            } catch (Throwable t) {
+                failure = t;
+            }
+
+            durationMillis = started == 0 ? 0 : (System.nanoTime() - started) / 1_000_000;
+            error = failure;
+            done.countDown();
+
+            final long duration = durationMillis;
+            final Throwable result = failure;
+            callbackExecutor.execute(() -> listener.onPhaseFinished(name, duration, result));
+        }
+    }
+
+    private static class StartupThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Startup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
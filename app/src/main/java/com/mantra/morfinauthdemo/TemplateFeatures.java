@@ -0,0 +1,65 @@
+package com.mantra.morfinauthdemo;
+
+// Cheap, fixed-size summary of an FMR template used to rank candidates before full matching:
+// minutia count, a 4x4 spatial histogram and an 8-bin orientation histogram, each scaled to 0..255.
+public final class TemplateFeatures {
+
+    public static final int LENGTH = 1 + 16 + 8;
+
+    private static final int GRID = 4;
+    private static final int ORIENTATION_BINS = 8;
+    private static final int SPATIAL_OFFSET = 1;
+    private static final int ORIENTATION_OFFSET = SPATIAL_OFFSET + GRID * GRID;
+    private static final int COUNT_WEIGHT = 4;
+
+    private TemplateFeatures() {
+    }
+
+    public static byte[] extract(byte[] template) {
+        if (template == null || template.length < 4 || template[0] != 'F' || template[1] != 'M' || template[2] != 'R') {
+            return null;
+        }
+        try {
+            return extract(FmrTemplateParser.parse(template));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static byte[] extract(FmrTemplate template) {
+        if (template.viewCount == 0) {
+            return null;
+        }
+        int start = template.viewMinutiaStart[0];
+        int count = template.viewMinutiaCount[0];
+        int width = Math.max(1, template.width(0));
+        int height = Math.max(1, template.height(0));
+
+        int[] spatial = new int[GRID * GRID];
+        int[] orientation = new int[ORIENTATION_BINS];
+        for (int i = start; i < start + count; i++) {
+            int gx = Math.min(GRID - 1, template.minutiaX[i] * GRID / width);
+            int gy = Math.min(GRID - 1, template.minutiaY[i] * GRID / height);
+            spatial[gy * GRID + gx]++;
+            orientation[template.angleUnits(i) * ORIENTATION_BINS / 256]++;
+        }
+
+        byte[] features = new byte[LENGTH];
+        features[0] = (byte) Math.min(255, count);
+        for (int i = 0; i < spatial.length; i++) {
+            features[SPATIAL_OFFSET + i] = (byte) (count == 0 ? 0 : spatial[i] * 255 / count);
+        }
+        for (int i = 0; i < orientation.length; i++) {
+            features[ORIENTATION_OFFSET + i] = (byte) (count == 0 ? 0 : orientation[i] * 255 / count);
+        }
+        return features;
+    }
+
+    public static int distance(byte[] a, byte[] b) {
+        int distance = COUNT_WEIGHT * Math.abs((a[0] & 0xFF) - (b[0] & 0xFF));
+        for (int i = SPATIAL_OFFSET; i < LENGTH; i++) {
+            distance += Math.abs((a[i] & 0xFF) - (b[i] & 0xFF));
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,87 @@
+package com.mantra.morfinauthdemo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TemplateGallery implements GallerySource {
+
+    private static final GalleryEntry[] EMPTY = new GalleryEntry[0];
+
+    // Readers take the current array without locking; writers publish a fresh copy.
+    private volatile GalleryEntry[] entries = EMPTY;
+    private final Map<String, GalleryEntry> byUserId = new HashMap<>();
+    private boolean loaded = false;
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    public synchronized void load(List<GalleryEntry> newestFirst) {
+        byUserId.clear();
+        for (GalleryEntry entry : newestFirst) {
+            byUserId.put(entry.userId, entry);
+        }
+        entries = newestFirst.toArray(new GalleryEntry[0]);
+        loaded = true;
+    }
+
+    public synchronized void add(GalleryEntry entry) {
+        GalleryEntry previous = byUserId.put(entry.userId, entry);
+        GalleryEntry[] current = entries;
+
+        if (previous != null) {
+            GalleryEntry[] updated = current.clone();
+            for (int i = 0; i < updated.length; i++) {
+                if (updated[i] == previous) {
+                    updated[i] = entry;
+                    break;
+                }
+            }
+            entries = updated;
+            return;
+        }
+
+        GalleryEntry[] updated = new GalleryEntry[current.length + 1];
+        updated[0] = entry;
+        System.arraycopy(current, 0, updated, 1, current.length);
+        entries = updated;
+    }
+
+    // Removes entry if it is still the current one for its user.
+    public synchronized void remove(GalleryEntry entry) {
+        if (byUserId.get(entry.userId) != entry) {
+            return;
+        }
+        byUserId.remove(entry.userId);
+        GalleryEntry[] current = entries;
+        GalleryEntry[] updated = new GalleryEntry[current.length - 1];
+        int at = 0;
+        for (GalleryEntry e : current) {
+            if (e != entry) {
+                updated[at++] = e;
+            }
+        }
+        entries = updated;
+    }
+
+    public synchronized void clear() {
+        byUserId.clear();
+        entries = EMPTY;
+    }
+
+    public synchronized GalleryEntry get(String userId) {
+        return byUserId.get(userId);
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    @Override
+    public List<GalleryEntry> getEntries() {
+        return Collections.unmodifiableList(Arrays.asList(entries));
+    }
+}
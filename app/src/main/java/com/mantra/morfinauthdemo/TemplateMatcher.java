@@ -0,0 +1,6 @@
+package com.mantra.morfinauthdemo;
+
+public interface TemplateMatcher {
+
+    int match(byte[] probeTemplate, byte[] galleryTemplate, int[] score);
+}
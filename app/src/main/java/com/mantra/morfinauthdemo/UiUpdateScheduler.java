@@ -0,0 +1,77 @@
+package com.mantra.morfinauthdemo;
+
+import android.graphics.Bitmap;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class UiUpdateScheduler implements Choreographer.FrameCallback {
+
+    public interface Sink {
+        void onPreview(Bitmap frame);
+
+        void onStatus(CharSequence status);
+    }
+
+    private final Choreographer choreographer;
+    private final Sink sink;
+
+    private final AtomicReference<Bitmap> pendingPreview = new AtomicReference<>();
+    private final AtomicReference<CharSequence> pendingStatus = new AtomicReference<>();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+
+    private final AtomicLong droppedPreviews;
+    private final AtomicLong droppedStatuses;
+
+    // Must be created on the UI thread so frames are delivered there.
+    public UiUpdateScheduler(Sink sink, MetricsRegistry metrics) {
+        this.choreographer = Choreographer.getInstance();
+        this.sink = sink;
+        this.droppedPreviews = metrics.counter(MetricsRegistry.UI_DROPPED_PREVIEWS);
+        this.droppedStatuses = metrics.counter(MetricsRegistry.UI_DROPPED_STATUSES);
+    }
+
+    public void postPreview(Bitmap frame) {
+        if (pendingPreview.getAndSet(frame) != null) {
+            droppedPreviews.incrementAndGet();
+        }
+        scheduleFrame();
+    }
+
+    public void postStatus(CharSequence status) {
+        if (pendingStatus.getAndSet(status) != null) {
+            droppedStatuses.incrementAndGet();
+        }
+        scheduleFrame();
+    }
+
+    // For UI-thread code that sets the status directly and must not be overwritten by an older post.
+    public void cancelPendingStatus() {
+        if (pendingStatus.getAndSet(null) != null) {
+            droppedStatuses.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled.set(false);
+
+        Bitmap preview = pendingPreview.getAndSet(null);
+        if (preview != null) {
+            sink.onPreview(preview);
+        }
+
+        CharSequence status = pendingStatus.getAndSet(null);
+        if (status != null) {
+            sink.onStatus(status);
+        }
+    }
+
+    private void scheduleFrame() {
+        if (frameScheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+}
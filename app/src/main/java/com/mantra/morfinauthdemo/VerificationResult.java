@@ -0,0 +1,39 @@
+package com.mantra.morfinauthdemo;
+
+public class VerificationResult {
+
+    public enum Status {
+        MATCH,
+        MISMATCH,
+        // The claimed user has no enrolled template.
+        NOT_ENROLLED,
+        // The matcher returned an error code; see errorCode.
+        MATCH_ERROR,
+        // No decision within the service timeout.
+        TIMEOUT
+    }
+
+    public final Status status;
+    public final String userId;
+    public final int score;
+    public final int errorCode;
+
+    // From verify() to the result being handed to the callback executor.
+    public final long latencyNanos;
+
+    public VerificationResult(Status status, String userId, int score, int errorCode, long latencyNanos) {
+        this.status = status;
+        this.userId = userId;
+        this.score = score;
+        this.errorCode = errorCode;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public boolean isMatch() {
+        return status == Status.MATCH;
+    }
+
+    public long getLatencyMillis() {
+        return latencyNanos / 1_000_000;
+    }
+}
@@ -0,0 +1,191 @@
+package com.mantra.morfinauthdemo;
+
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 1:1 verification off the UI thread. The claimed user's template comes from the in-memory gallery,
+// the match runs on a worker, and the result goes to the callback executor; a match that overruns
+// the timeout is reported as TIMEOUT instead of holding up the caller.
+public class VerificationService {
+
+    private static final String TAG = "Verify";
+
+    public interface TemplateLookup {
+        // Null when the user is not enrolled.
+        GalleryEntry find(String userId);
+    }
+
+    public interface Callback {
+        void onVerified(VerificationResult result);
+    }
+
+    private final TemplateMatcher matcher;
+    private final TemplateLookup lookup;
+    private final MetricsRegistry metrics;
+    private final LatencyHistogram latency;
+    private final Executor callbackExecutor;
+    private final long timeoutNanos;
+
+    // One worker: 1:1 matches are short, and a native match that hangs shows up as timeouts
+    // rather than a growing pool of stuck threads.
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> new Thread(r, "Verification"));
+    private final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "VerificationTimeout"));
+
+    private volatile int matchThreshold = ParallelIdentificationEngine.MATCH_THRESHOLD;
+
+    public VerificationService(TemplateMatcher matcher, TemplateLookup lookup, MetricsRegistry metrics,
+                               Executor callbackExecutor, long timeoutMillis) {
+        this.matcher = matcher;
+        this.lookup = lookup;
+        this.metrics = metrics;
+        this.latency = metrics.histogram(MetricsRegistry.MATCH_VERIFY);
+        this.callbackExecutor = callbackExecutor;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    public void setMatchThreshold(int threshold) {
+        matchThreshold = threshold;
+    }
+
+    public int getMatchThreshold() {
+        return matchThreshold;
+    }
+
+    // callback may be null when the caller only waits on the returned future.
+    public Future<VerificationResult> verify(String userId, byte[] probeTemplate, Callback callback) {
+        Verification verification = new Verification(userId, System.nanoTime(), callback);
+        try {
+            verification.timeout = timer.schedule(
+                    () -> verification.complete(VerificationResult.Status.TIMEOUT, 0, 0), timeoutNanos,
+                    TimeUnit.NANOSECONDS);
+            worker.execute(() -> {
+                try {
+                    verification.complete(match(userId, probeTemplate));
+                } catch (RuntimeException e) {
+                    verification.complete(VerificationResult.Status.MATCH_ERROR, 0, 0);
+                    Log.e(TAG, "Error verifying " + userId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            verification.complete(VerificationResult.Status.MATCH_ERROR, 0, 0);
+            Log.e(TAG, "Verification after shutdown", e);
+        }
+        return verification;
+    }
+
+    public void shutdown() {
+        worker.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private VerificationResult match(String userId, byte[] probeTemplate) {
+        GalleryEntry entry = lookup.find(userId);
+        if (entry == null) {
+            return new VerificationResult(VerificationResult.Status.NOT_ENROLLED, userId, 0, 0, 0);
+        }
+        int[] score = new int[1];
+        int ret = entry.matchWith(matcher, probeTemplate, score);
+        metrics.increment(MetricsRegistry.TEMPLATE_COMPARISONS);
+        if (ret != 0) {
+            return new VerificationResult(VerificationResult.Status.MATCH_ERROR, userId, 0, ret, 0);
+        }
+        VerificationResult.Status status = score[0] >= matchThreshold
+                ? VerificationResult.Status.MATCH
+                : VerificationResult.Status.MISMATCH;
+        return new VerificationResult(status, userId, score[0], 0, 0);
+    }
+
+    // Completed exactly once, by the worker or by the timeout, whichever comes first. Waiters and the
+    // callback are released before anything is logged.
+    private class Verification implements Future<VerificationResult> {
+
+        private final String userId;
+        private final long startNanos;
+        private final Callback callback;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile VerificationResult result;
+        private volatile ScheduledFuture<?> timeout;
+
+        Verification(String userId, long startNanos, Callback callback) {
+            this.userId = userId;
+            this.startNanos = startNanos;
+            this.callback = callback;
+        }
+
+        void complete(VerificationResult.Status status, int score, int errorCode) {
+            complete(new VerificationResult(status, userId, score, errorCode, 0));
+        }
+
+        void complete(VerificationResult outcome) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            long elapsed = System.nanoTime() - startNanos;
+            result = new VerificationResult(outcome.status, userId, outcome.score, outcome.errorCode, elapsed);
+
+            ScheduledFuture<?> pending = timeout;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            boolean timedOut = outcome.status == VerificationResult.Status.TIMEOUT;
+            metrics.increment(MetricsRegistry.VERIFICATIONS);
+            if (timedOut) {
+                metrics.increment(MetricsRegistry.VERIFICATION_TIMEOUTS);
+            } else {
+                latency.recordNanos(elapsed);
+            }
+            done.countDown();
+
+            if (callback != null) {
+                VerificationResult delivered = result;
+                callbackExecutor.execute(() -> callback.onVerified(delivered));
+            }
+            if (timedOut) {
+                Log.w(TAG, "No decision for " + userId + " within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+            }
+        }
+
+        // Matches cannot be interrupted; a verification always ends by itself within the timeout.
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public VerificationResult get() throws InterruptedException {
+            done.await();
+            return result;
+        }
+
+        @Override
+        public VerificationResult get(long time, TimeUnit unit) throws InterruptedException, TimeoutException {
+            if (!done.await(time, unit)) {
+                throw new TimeoutException();
+            }
+            return result;
+        }
+    }
+}
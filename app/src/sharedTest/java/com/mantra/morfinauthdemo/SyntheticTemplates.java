@@ -0,0 +1,124 @@
+package com.mantra.morfinauthdemo;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+// Builds ISO/IEC 19794-2:2011 records for tests. Each minutia is {x, y, angleUnits, type, quality}.
+final class SyntheticTemplates {
+
+    private SyntheticTemplates() {
+    }
+
+    static byte[] fmr2011(int width, int height, int[][] minutiae) {
+        return fmr2011(width, height, 6, minutiae);
+    }
+
+    static byte[] fmr2011(int width, int height, int minutiaFieldLength, int[][]... views) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int v = 0; v < views.length; v++) {
+            byte[] representation = representation(width, height, minutiaFieldLength, v, views[v]);
+            body.write(representation, 0, representation.length);
+        }
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write('F');
+        record.write('M');
+        record.write('R');
+        record.write(0);
+        record.write('0');
+        record.write('3');
+        record.write('0');
+        record.write(0);
+        writeInt(record, 15 + body.size());
+        writeShort(record, views.length);
+        record.write(0);
+        byte[] bytes = body.toByteArray();
+        record.write(bytes, 0, bytes.length);
+        return record.toByteArray();
+    }
+
+    static int[][] randomMinutiae(Random random, int count, int width, int height) {
+        int[][] minutiae = new int[count][];
+        for (int i = 0; i < count; i++) {
+            minutiae[i] = new int[]{
+                    16 + random.nextInt(width - 32),
+                    16 + random.nextInt(height - 32),
+                    random.nextInt(256),
+                    1 + random.nextInt(2),
+                    40 + random.nextInt(60)
+            };
+        }
+        return minutiae;
+    }
+
+    // Rotates counter-clockwise (ISO convention, y pointing down) by angleUnits about the image
+    // centre, then translates.
+    static int[][] transform(int[][] minutiae, int width, int height, int angleUnits, int dx, int dy) {
+        double theta = angleUnits * 2 * Math.PI / 256.0;
+        double cos = Math.cos(theta);
+        double sin = Math.sin(theta);
+        double cx = width / 2.0;
+        double cy = height / 2.0;
+
+        int[][] moved = new int[minutiae.length][];
+        for (int i = 0; i < minutiae.length; i++) {
+            int[] m = minutiae[i];
+            double x = m[0] - cx;
+            double y = m[1] - cy;
+            int nx = (int) Math.round(cx + x * cos + y * sin) + dx;
+            int ny = (int) Math.round(cy - x * sin + y * cos) + dy;
+            moved[i] = new int[]{nx, ny, (m[2] + angleUnits) & 0xFF, m[3], m[4]};
+        }
+        return moved;
+    }
+
+    private static byte[] representation(int width, int height, int minutiaFieldLength, int view, int[][] minutiae) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = 4 + 9 + 1 + 2 + 2 + 1 + 5 + 13 + minutiae.length * minutiaFieldLength + 2;
+        writeInt(out, length);
+        for (int i = 0; i < 9; i++) {
+            out.write(0);
+        }
+        out.write(0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+
+        out.write(1);
+        out.write(77);
+        writeShort(out, 0x0101);
+        writeShort(out, 1);
+
+        out.write(view + 1);
+        out.write(view);
+        writeShort(out, 197);
+        writeShort(out, 197);
+        out.write(0);
+        writeShort(out, width);
+        writeShort(out, height);
+        out.write(minutiaFieldLength << 4);
+        out.write(minutiae.length);
+
+        for (int[] m : minutiae) {
+            writeShort(out, (m[3] << 14) | (m[0] & 0x3FFF));
+            writeShort(out, m[1] & 0x3FFF);
+            out.write(m[2]);
+            if (minutiaFieldLength == 6) {
+                out.write(m[4]);
+            }
+        }
+        writeShort(out, 0);
+        return out.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
@@ -0,0 +1,173 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CapturePackTest {
+
+    private static final String SESSION = "20260301_101500";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendLabelAndReopen_keepsIndexAndUserIds() throws IOException {
+        File file = new File(folder.getRoot(), "20260301.pack");
+        CapturePack pack = CapturePack.open(file);
+        for (int finger = 1; finger <= 3; finger++) {
+            pack.append(SESSION, finger, 70 + finger, 2, ImageArchiver.Format.PNG, 1000L * finger, image(finger, 500));
+        }
+        assertTrue(pack.label(SESSION, 2, "USER_007"));
+        pack.close();
+
+        CapturePack reopened = CapturePack.open(file);
+        try {
+            assertEquals(3, reopened.size());
+            List<CapturePack.Entry> byUser = reopened.findByUser("USER_007");
+            assertEquals(1, byUser.size());
+
+            CapturePack.Capture capture = reopened.read(byUser.get(0));
+            assertEquals(2, capture.fingerNumber);
+            assertEquals(72, capture.quality);
+            assertEquals(ImageArchiver.Format.PNG, capture.format);
+            assertEquals(2000L, capture.capturedAt);
+            assertArrayEquals(image(2, 500), capture.image);
+            assertEquals(0, reopened.verify());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void open_rebuildsIndexAndDropsTornTail() throws IOException {
+        File file = new File(folder.getRoot(), "20260301.pack");
+        CapturePack pack = CapturePack.open(file);
+        pack.append(SESSION, 1, 80, 1, ImageArchiver.Format.BMP, 1, image(1, 300));
+        pack.append(SESSION, 2, 80, 1, ImageArchiver.Format.BMP, 2, image(2, 300));
+        pack.label(SESSION, 1, "USER_001");
+        pack.close();
+
+        long fullLength = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(fullLength + 20);  // half-written record after a crash
+        } finally {
+            raf.close();
+        }
+        assertTrue(CapturePack.indexFileFor(file).delete());
+
+        CapturePack recovered = CapturePack.open(file);
+        try {
+            assertEquals(fullLength, file.length());
+            assertEquals(2, recovered.findBySession(SESSION).size());
+            assertEquals("USER_001", recovered.findByUser("USER_001").get(0).getUserId());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    public void verify_detectsCorruptImage() throws IOException {
+        File file = new File(folder.getRoot(), "20260301.pack");
+        CapturePack pack = CapturePack.open(file);
+        pack.append(SESSION, 1, 80, 1, ImageArchiver.Format.BMP, 1, image(1, 300));
+        pack.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(CapturePack.RECORD_HEADER_LENGTH + 100);
+            raf.write(raf.read() ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        CapturePack reopened = CapturePack.open(file);
+        try {
+            assertEquals(1, reopened.size());
+            assertEquals(1, reopened.verify());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void migrateSessionFolders_movesFingerFilesIntoDayPack() throws IOException {
+        File root = folder.newFolder("FingerData");
+        File session = new File(root, SESSION);
+        assertTrue(session.mkdirs());
+        byte[] bmp = image(4, 200);
+        bmp[0] = 'B';
+        bmp[1] = 'M';
+        write(new File(session, "finger_1.jpg"), bmp);
+        write(new File(session, "finger_2.jpg"), bmp);
+
+        CapturePackStore store = new CapturePackStore(root);
+        try {
+            assertEquals(1, store.migrateSessionFolders());
+            assertFalse(session.exists());
+
+            List<CapturePack.Entry> entries = store.findBySession(SESSION);
+            assertEquals(2, entries.size());
+            CapturePack.Capture capture = store.read(entries.get(1));
+            assertEquals(ImageArchiver.Format.BMP, capture.format);
+            assertArrayEquals(bmp, capture.image);
+            assertEquals(new File(root, "20260301.pack"), store.packFileFor(SESSION));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void migrateSessionFolders_keepsFolderWithStrayFiles() throws IOException {
+        File root = folder.newFolder("FingerData");
+        File session = new File(root, SESSION);
+        assertTrue(session.mkdirs());
+        byte[] bmp = image(5, 200);
+        bmp[0] = 'B';
+        bmp[1] = 'M';
+        write(new File(session, "finger_1.jpg"), bmp);
+        File notes = new File(session, "notes.txt");
+        write(notes, new byte[]{'o', 'k'});
+
+        CapturePackStore store = new CapturePackStore(root);
+        try {
+            assertEquals(1, store.migrateSessionFolders());
+            assertEquals(1, store.findBySession(SESSION).size());
+            assertFalse(new File(session, "finger_1.jpg").exists());
+            assertTrue(notes.exists());
+            assertTrue(session.isDirectory());
+
+            // A second pass does not pack the session again.
+            store.migrateSessionFolders();
+            assertEquals(1, store.findBySession(SESSION).size());
+        } finally {
+            store.close();
+        }
+    }
+
+    private static byte[] image(int seed, int length) {
+        byte[] image = new byte[length];
+        for (int i = 0; i < length; i++) {
+            image[i] = (byte) (seed * 31 + i * 7);
+        }
+        return image;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
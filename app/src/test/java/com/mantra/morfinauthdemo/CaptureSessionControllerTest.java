@@ -0,0 +1,204 @@
+package com.mantra.morfinauthdemo;
+
+import com.mantra.morfinauth.DeviceInfo;
+import com.mantra.morfinauth.MorfinAuth_Callback;
+import com.mantra.morfinauth.enums.DeviceDetection;
+import com.mantra.morfinauth.enums.DeviceModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CaptureSessionControllerTest {
+
+    private SimulatedScanner scanner;
+    private CaptureSessionController controller;
+
+    private final MorfinAuth_Callback callback = new MorfinAuth_Callback() {
+        @Override
+        public void OnDeviceDetection(String name, DeviceDetection detection) {
+        }
+
+        @Override
+        public void OnPreview(int errorCode, int quality, byte[] image) {
+        }
+
+        @Override
+        public void OnComplete(int errorCode, int quality, int nfiq) {
+        }
+
+        @Override
+        public void OnFingerPosition(int errorCode, int position) {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        SimulatedScanner.Sample sample = new SimulatedScanner.Sample(bmp(32, 40), new byte[64],
+                SimulatedScanner.Sample.DEFAULT_QUALITY, SimulatedScanner.Sample.DEFAULT_NFIQ);
+        scanner = new SimulatedScanner(callback, Collections.singletonList(sample), 3).setCaptureLatency(20, 20);
+        scanner.connect();
+        controller = new CaptureSessionController(scanner);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        controller.shutdown(2000);
+    }
+
+    @Test
+    public void blockingCapture_rejectsOverlappingCommandsUntilStopped() throws InterruptedException {
+        assertEquals(Scanner.SUCCESS, init());
+
+        AtomicInteger captures = new AtomicInteger();
+        CountDownLatch capturing = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        CaptureSessionController.Session session = controller.runCapture(s -> {
+            int[] quality = new int[1];
+            int[] nfiq = new int[1];
+            while (!s.isStopRequested()) {
+                int ret = scanner.autoCapture(60, 1000, quality, nfiq);
+                if (ret != Scanner.SUCCESS) {
+                    // Only the stop may end a capture early.
+                    assertTrue(s.isStopRequested());
+                    break;
+                }
+                captures.incrementAndGet();
+                capturing.countDown();
+            }
+            done.countDown();
+        });
+        assertNotNull(session);
+        assertTrue(capturing.await(2, TimeUnit.SECONDS));
+
+        assertNull(controller.runCapture(s -> fail("second capture ran")));
+        assertFalse(controller.uninit((ret, error) -> fail("uninit ran during capture")));
+
+        assertTrue(controller.stop(null));
+        assertFalse(controller.stop(null));
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        awaitState(CaptureSessionController.State.READY);
+        assertTrue(captures.get() > 0);
+
+        CountDownLatch uninitialized = new CountDownLatch(1);
+        assertTrue(controller.uninit((ret, error) -> uninitialized.countDown()));
+        assertTrue(uninitialized.await(2, TimeUnit.SECONDS));
+        assertEquals(CaptureSessionController.State.IDLE, controller.getState());
+    }
+
+    @Test
+    public void stopOfBlockingCapture_abortsAutoCaptureInProgress() throws InterruptedException {
+        assertEquals(Scanner.SUCCESS, init());
+        scanner.setCaptureLatency(5000, 5000);
+
+        CountDownLatch capturing = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger captureResult = new AtomicInteger(Integer.MIN_VALUE);
+        assertNotNull(controller.runCapture(s -> {
+            capturing.countDown();
+            captureResult.set(scanner.autoCapture(60, 10000, new int[1], new int[1]));
+            done.countDown();
+        }));
+        assertTrue(capturing.await(2, TimeUnit.SECONDS));
+        Thread.sleep(50);
+
+        assertTrue(controller.stop(null));
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(SimulatedScanner.ERROR_CAPTURE_STOPPED, captureResult.get());
+        awaitState(CaptureSessionController.State.READY);
+    }
+
+    @Test
+    public void stopOfStartCaptureSession_endsSessionAndDropsQueuedSteps() throws InterruptedException {
+        assertEquals(Scanner.SUCCESS, init());
+        scanner.setCaptureLatency(5000, 5000);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CaptureSessionController.Session session = controller.startCapture(s -> {
+            assertEquals(Scanner.SUCCESS, scanner.startCapture(60, 10000));
+            started.countDown();
+        });
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        assertEquals(CaptureSessionController.State.CAPTURING, controller.getState());
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        AtomicInteger stopResult = new AtomicInteger(Integer.MIN_VALUE);
+        assertTrue(controller.stop((ret, error) -> {
+            stopResult.set(ret);
+            stopped.countDown();
+        }));
+        assertTrue(stopped.await(2, TimeUnit.SECONDS));
+        assertEquals(Scanner.SUCCESS, stopResult.get());
+        assertEquals(CaptureSessionController.State.READY, controller.getState());
+        assertFalse(session.isActive());
+
+        // A late OnComplete that still tries to continue the old session is ignored.
+        AtomicInteger staleSteps = new AtomicInteger();
+        session.next(s -> staleSteps.incrementAndGet());
+        session.finish();
+        CountDownLatch next = new CountDownLatch(1);
+        assertNotNull(controller.runCapture(s -> next.countDown()));
+        assertTrue(next.await(2, TimeUnit.SECONDS));
+        assertEquals(0, staleSteps.get());
+    }
+
+    @Test
+    public void deviceDisconnected_endsSessionAndQueuesCleanupBeforeNextInit() throws InterruptedException {
+        assertEquals(Scanner.SUCCESS, init());
+
+        CountDownLatch capturing = new CountDownLatch(1);
+        CaptureSessionController.Session session = controller.runCapture(s -> {
+            int[] quality = new int[1];
+            int[] nfiq = new int[1];
+            while (!s.isStopRequested()) {
+                capturing.countDown();
+                scanner.autoCapture(60, 1000, quality, nfiq);
+            }
+        });
+        assertTrue(capturing.await(2, TimeUnit.SECONDS));
+
+        scanner.disconnect();
+        controller.deviceDisconnected();
+        assertEquals(CaptureSessionController.State.IDLE, controller.getState());
+        assertTrue(session.isStopRequested());
+        assertNull(controller.runCapture(s -> fail("captured without a device")));
+
+        assertEquals(Scanner.ERROR_DEVICE_NOT_CONNECTED, init());
+        assertEquals(CaptureSessionController.State.IDLE, controller.getState());
+    }
+
+    private int init() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger result = new AtomicInteger(Integer.MIN_VALUE);
+        assertTrue(controller.init(DeviceModel.MFS500, null, new DeviceInfo(), (ret, error) -> {
+            result.set(ret);
+            done.countDown();
+        }));
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private void awaitState(CaptureSessionController.State expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (controller.getState() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, controller.getState());
+    }
+
+    private static byte[] bmp(int width, int height) {
+        byte[] image = new byte[1078 + width * height];
+        image[0] = 'B';
+        image[1] = 'M';
+        image[18] = (byte) width;
+        image[22] = (byte) height;
+        return image;
+    }
+}
@@ -0,0 +1,102 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FmrTemplateParserTest {
+
+    private static final int[][] MINUTIAE = {
+            {100, 120, 64, FmrTemplate.TYPE_RIDGE_ENDING, 80},
+            {200, 50, 255, FmrTemplate.TYPE_BIFURCATION, 60},
+            {16383, 0, 0, FmrTemplate.TYPE_OTHER, 100},
+    };
+
+    @Test
+    public void parse_decodesHeaderAndMinutiae() {
+        byte[] record = SyntheticTemplates.fmr2011(300, 400, MINUTIAE);
+
+        FmrTemplate template = FmrTemplateParser.parse(record);
+
+        assertEquals(30, template.version);
+        assertEquals(record.length, template.recordLength);
+        assertEquals(1, template.viewCount);
+        assertEquals(300, template.width(0));
+        assertEquals(400, template.height(0));
+        assertEquals(77, template.viewQuality(0));
+        assertEquals(3, template.minutiaCount);
+
+        assertEquals(100, template.minutiaX[0]);
+        assertEquals(120, template.minutiaY[0]);
+        assertEquals(64, template.angleUnits(0));
+        assertEquals(90.0, template.angleDegrees(0), 1e-9);
+        assertEquals(FmrTemplate.TYPE_RIDGE_ENDING, template.minutiaType[0]);
+        assertEquals(80, template.quality(0));
+
+        assertEquals(255, template.angleUnits(1));
+        assertEquals(FmrTemplate.TYPE_BIFURCATION, template.minutiaType[1]);
+        assertEquals(16383, template.minutiaX[2]);
+    }
+
+    @Test
+    public void parse_multipleViewsShareMinutiaArrays() {
+        int[][] second = {{10, 20, 30, FmrTemplate.TYPE_BIFURCATION, 90}};
+        byte[] record = SyntheticTemplates.fmr2011(300, 400, 6, MINUTIAE, second);
+
+        FmrTemplate template = FmrTemplateParser.parse(record);
+
+        assertEquals(2, template.viewCount);
+        assertEquals(0, template.viewMinutiaStart[0]);
+        assertEquals(3, template.viewMinutiaCount[0]);
+        assertEquals(3, template.viewMinutiaStart[1]);
+        assertEquals(1, template.viewMinutiaCount[1]);
+        assertEquals(10, template.minutiaX[3]);
+        assertEquals(2, template.viewFingerPosition[1]);
+    }
+
+    @Test
+    public void parse_fiveByteMinutiaeHaveNoQuality() {
+        byte[] record = SyntheticTemplates.fmr2011(300, 400, 5, MINUTIAE);
+
+        FmrTemplate template = FmrTemplateParser.parse(record);
+
+        assertEquals(3, template.minutiaCount);
+        assertEquals(FmrTemplate.QUALITY_NOT_REPORTED, template.quality(0));
+        assertEquals(200, template.minutiaX[1]);
+    }
+
+    @Test
+    public void parseInto_reusesTarget() {
+        byte[] record = SyntheticTemplates.fmr2011(300, 400, MINUTIAE);
+        FmrTemplate template = new FmrTemplate();
+        FmrTemplateParser.parseInto(record, 0, record.length, template);
+        short[] xs = template.minutiaX;
+
+        byte[] smaller = SyntheticTemplates.fmr2011(300, 400, new int[][]{MINUTIAE[1]});
+        FmrTemplateParser.parseInto(smaller, 0, smaller.length, template);
+
+        assertSame(xs, template.minutiaX);
+        assertEquals(1, template.minutiaCount);
+        assertEquals(200, template.minutiaX[0]);
+    }
+
+    @Test
+    public void parse_rejectsTruncatedRecord() {
+        byte[] record = SyntheticTemplates.fmr2011(300, 400, MINUTIAE);
+        byte[] truncated = Arrays.copyOf(record, record.length - 8);
+
+        try {
+            FmrTemplateParser.parse(truncated);
+            fail("Expected truncated record to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsOtherFormats() {
+        FmrTemplateParser.parse("FMR\0 20\0garbage-garbage".getBytes());
+    }
+}
@@ -0,0 +1,126 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GallerySnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeAndOpen_mapsTemplatesNewestFirst() throws IOException {
+        File file = folder.newFile("gallery.snapshot");
+        byte[][] templates = templates(3, 1);
+        writeSnapshot(file, templates, 42);
+
+        GallerySnapshot snapshot = GallerySnapshot.open(file);
+
+        assertEquals(3, snapshot.size());
+        assertEquals(42, snapshot.getLastRowId());
+        List<GalleryEntry> entries = snapshot.getEntries();
+        assertEquals("USER_003", entries.get(0).userId);
+        assertTrue(entries.get(0).isMapped());
+        assertEquals(70, entries.get(0).quality);
+        assertArrayEquals(templates[2], entries.get(0).getTemplate());
+        assertArrayEquals(TemplateFeatures.extract(templates[0]), entries.get(2).features);
+    }
+
+    @Test
+    public void mappedEntry_scoresInPlaceLikeHeapEntry() throws IOException {
+        File file = folder.newFile("gallery.snapshot");
+        byte[][] templates = templates(2, 2);
+        writeSnapshot(file, templates, 2);
+        GalleryEntry mapped = GallerySnapshot.open(file).getEntries().get(1);
+
+        MinutiaeTemplateMatcher matcher = new MinutiaeTemplateMatcher();
+        int[] mappedScore = new int[1];
+        int[] heapScore = new int[1];
+        assertEquals(0, mapped.matchWith(matcher, templates[0], mappedScore));
+        assertEquals(0, matcher.match(templates[0], templates[0], heapScore));
+
+        assertEquals(heapScore[0], mappedScore[0]);
+        assertEquals(MinutiaeTemplateMatcher.MAX_SCORE, mappedScore[0]);
+    }
+
+    @Test
+    public void append_addsEntriesAndUpdatesHeader() throws IOException {
+        File file = folder.newFile("gallery.snapshot");
+        byte[][] templates = templates(3, 3);
+        writeSnapshot(file, Arrays.copyOf(templates, 2), 2);
+
+        GallerySnapshot.append(file, Arrays.asList(new GalleryEntry("USER_003", templates[2], 70, 2)), 3);
+        GallerySnapshot snapshot = GallerySnapshot.open(file);
+
+        assertEquals(3, snapshot.size());
+        assertEquals(3, snapshot.getLastRowId());
+        assertEquals("USER_003", snapshot.getEntries().get(0).userId);
+        assertArrayEquals(templates[2], snapshot.getEntries().get(0).getTemplate());
+        assertArrayEquals(templates[0], snapshot.getEntries().get(2).getTemplate());
+    }
+
+    @Test
+    public void corruptTemplate_isDetectedOnFirstUseAndSkipped() throws IOException {
+        File file = folder.newFile("gallery.snapshot");
+        byte[][] templates = templates(2, 4);
+        writeSnapshot(file, templates, 2);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(GallerySnapshot.HEADER_LENGTH + 20);
+            raf.write(raf.read() ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        // Only the header and index are checked at open.
+        List<GalleryEntry> entries = GallerySnapshot.open(file).getEntries();
+        assertEquals(2, entries.size());
+
+        MinutiaeTemplateMatcher matcher = new MinutiaeTemplateMatcher();
+        int[] score = new int[1];
+        GalleryEntry corrupt = entries.get(1);
+        assertEquals(GalleryEntry.ERROR_CORRUPT_TEMPLATE, corrupt.matchWith(matcher, templates[0], score));
+        assertFalse(corrupt.isIntact());
+        assertTrue(entries.get(0).isIntact());
+        assertEquals(0, entries.get(0).matchWith(matcher, templates[1], score));
+
+        TemplateGallery gallery = new TemplateGallery();
+        gallery.load(entries);
+        gallery.remove(corrupt);
+        assertEquals(1, gallery.size());
+        assertNull(gallery.get("USER_001"));
+        assertSame(entries.get(0), gallery.get("USER_002"));
+    }
+
+    private static void writeSnapshot(File file, byte[][] templates, long lastRowId) throws IOException {
+        GallerySnapshot.Writer writer = new GallerySnapshot.Writer(file);
+        try {
+            for (int i = 0; i < templates.length; i++) {
+                writer.add(String.format("USER_%03d", i + 1), templates[i], 70, 2);
+            }
+            writer.commit(lastRowId);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static byte[][] templates(int count, long seed) {
+        Random random = new Random(seed);
+        byte[][] templates = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            templates[i] = SyntheticTemplates.fmr2011(400, 500, SyntheticTemplates.randomMinutiae(random, 30, 400, 500));
+        }
+        return templates;
+    }
+}
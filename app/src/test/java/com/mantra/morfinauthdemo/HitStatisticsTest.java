@@ -0,0 +1,116 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HitStatisticsTest {
+
+    private static final long HALF_LIFE = 1000;
+
+    @Test
+    public void recordHit_decaysPreviousScore() {
+        HitStatistics stats = new HitStatistics(HALF_LIFE, 8);
+
+        stats.recordHit("USER_001", 0);
+        stats.recordHit("USER_001", HALF_LIFE);
+
+        assertEquals(1.5, stats.score("USER_001", HALF_LIFE), 1e-9);
+        assertEquals(0.75, stats.score("USER_001", 2 * HALF_LIFE), 1e-9);
+    }
+
+    @Test
+    public void hotSet_prefersFrequentAndRecentUsers() {
+        HitStatistics stats = new HitStatistics(HALF_LIFE, 2);
+        stats.recordHit("USER_old", 0);
+        stats.recordHit("USER_frequent", 900);
+        stats.recordHit("USER_frequent", 950);
+        stats.recordHit("USER_recent", 1000);
+
+        GalleryEntry[] gallery = entries("USER_a", "USER_recent", "USER_old", "USER_frequent", "USER_b");
+        int hot = stats.moveHotToFront(gallery, 1000);
+
+        assertEquals(2, hot);
+        assertEquals(Arrays.asList("USER_frequent", "USER_recent", "USER_a", "USER_old", "USER_b"), ids(gallery));
+    }
+
+    @Test
+    public void load_keepsHitsRecordedBeforeLoadAndSkipsDirtyTracking() {
+        HitStatistics stats = new HitStatistics(HALF_LIFE, 8);
+        stats.recordHit("USER_001", 500);
+
+        stats.load(Arrays.asList(
+                new HitStatistics.Record("USER_001", 10, 0),
+                new HitStatistics.Record("USER_002", 4, 0)));
+
+        assertEquals(1.0, stats.score("USER_001", 500), 1e-9);
+        assertEquals(2.0, stats.score("USER_002", HALF_LIFE), 1e-9);
+        assertEquals(Collections.singletonList("USER_001"), userIds(stats.drainDirty()));
+        assertTrue(stats.drainDirty().isEmpty());
+    }
+
+    @Test
+    public void recordHit_keepsHotSetEqualToFullRanking() {
+        HitStatistics incremental = new HitStatistics(HALF_LIFE, 4);
+        Map<String, HitStatistics.Record> latest = new HashMap<>();
+        Random random = new Random(7);
+        long now = 0;
+        for (int i = 0; i < 500; i++) {
+            now += 1 + random.nextInt(300);
+            String userId = "USER_" + random.nextInt(20);
+            incremental.recordHit(userId, now);
+            latest.put(userId, new HitStatistics.Record(userId, incremental.score(userId, now), now));
+
+            // load() ranks every record from scratch.
+            HitStatistics reranked = new HitStatistics(HALF_LIFE, 4);
+            reranked.load(new ArrayList<>(latest.values()));
+            assertEquals(reranked.hotSet(now), incremental.hotSet(now));
+        }
+    }
+
+    @Test
+    public void pruneCold_dropsUsersBelowHotThreshold() {
+        HitStatistics stats = new HitStatistics(HALF_LIFE, 8);
+        stats.recordHit("USER_old", 0);
+        stats.recordHit("USER_new", 3 * HALF_LIFE);
+        stats.drainDirty();
+
+        assertEquals(Collections.singletonList("USER_old"), stats.pruneCold(3 * HALF_LIFE));
+        assertEquals(1, stats.size());
+        assertEquals(0, stats.score("USER_old", 3 * HALF_LIFE), 1e-9);
+        assertEquals(Collections.singletonMap("USER_new", 0), stats.hotSet(3 * HALF_LIFE));
+        assertTrue(stats.pruneCold(3 * HALF_LIFE).isEmpty());
+    }
+
+    private static GalleryEntry[] entries(String... userIds) {
+        GalleryEntry[] entries = new GalleryEntry[userIds.length];
+        for (int i = 0; i < userIds.length; i++) {
+            entries[i] = new GalleryEntry(userIds[i], new byte[]{(byte) i});
+        }
+        return entries;
+    }
+
+    private static List<String> ids(GalleryEntry[] entries) {
+        String[] ids = new String[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            ids[i] = entries[i].userId;
+        }
+        return Arrays.asList(ids);
+    }
+
+    private static List<String> userIds(List<HitStatistics.Record> records) {
+        String[] ids = new String[records.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = records.get(i).userId;
+        }
+        return Arrays.asList(ids);
+    }
+}
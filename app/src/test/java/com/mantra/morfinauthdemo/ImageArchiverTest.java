@@ -0,0 +1,104 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class ImageArchiverTest {
+
+    private static final int WIDTH = 258;
+    private static final int HEIGHT = 300;
+
+    @Test
+    public void png_isLosslessAndTopDown() throws IOException {
+        byte[] bmp = ridgeBmp(WIDTH, HEIGHT);
+        ImageArchiver archiver = new ImageArchiver(ImageArchiver.Format.PNG);
+
+        byte[] png = archiver.encode(bmp, bmp.length);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+
+        assertEquals(WIDTH, decoded.getWidth());
+        assertEquals(HEIGHT, decoded.getHeight());
+        for (int y = 0; y < HEIGHT; y += 7) {
+            for (int x = 0; x < WIDTH; x += 5) {
+                assertEquals(pixel(x, y), decoded.getRaster().getSample(x, y, 0));
+            }
+        }
+        assertTrue(png.length * 2 < bmp.length);
+        assertEquals(ImageArchiver.Format.PNG, ImageArchiver.detect(png));
+        assertEquals("finger_3.png", archiver.fileName(3));
+    }
+
+    @Test
+    public void deflate_roundTripsBmp() throws Exception {
+        byte[] bmp = ridgeBmp(WIDTH, HEIGHT);
+
+        byte[] deflated = new ImageArchiver(ImageArchiver.Format.DEFLATE).encode(bmp, bmp.length);
+        Inflater inflater = new Inflater();
+        inflater.setInput(deflated);
+        byte[] restored = new byte[bmp.length];
+        assertEquals(bmp.length, inflater.inflate(restored));
+        inflater.end();
+
+        assertArrayEquals(bmp, restored);
+        assertEquals(ImageArchiver.Format.DEFLATE, ImageArchiver.detect(deflated));
+        assertEquals(ImageArchiver.Format.BMP, ImageArchiver.detect(bmp));
+    }
+
+    @Test(expected = IOException.class)
+    public void png_rejectsNonBmpInput() throws IOException {
+        byte[] notBmp = new byte[2000];
+        new ImageArchiver(ImageArchiver.Format.PNG).encode(notBmp, notBmp.length);
+    }
+
+    // Smooth ridge pattern with a little noise, stored bottom-up like the scanner's BMPs.
+    private static byte[] ridgeBmp(int width, int height) {
+        int stride = (width + 3) & ~3;
+        int pixelOffset = 14 + 40 + 1024;
+        byte[] bmp = new byte[pixelOffset + stride * height];
+        bmp[0] = 'B';
+        bmp[1] = 'M';
+        writeInt(bmp, 2, bmp.length);
+        writeInt(bmp, 10, pixelOffset);
+        writeInt(bmp, 14, 40);
+        writeInt(bmp, 18, width);
+        writeInt(bmp, 22, height);
+        bmp[26] = 1;
+        bmp[28] = 8;
+        writeInt(bmp, 46, 256);
+        for (int i = 0; i < 256; i++) {
+            int entry = 54 + i * 4;
+            bmp[entry] = (byte) i;
+            bmp[entry + 1] = (byte) i;
+            bmp[entry + 2] = (byte) i;
+        }
+        for (int y = 0; y < height; y++) {
+            int row = pixelOffset + (height - 1 - y) * stride;
+            for (int x = 0; x < width; x++) {
+                bmp[row + x] = (byte) pixel(x, y);
+            }
+        }
+        return bmp;
+    }
+
+    private static int pixel(int x, int y) {
+        int ridge = (int) (100 * Math.sin((x + y * 0.6) / 4.0));
+        int noise = new Random(x * 31L + y).nextInt(3);
+        return 128 + ridge + noise;
+    }
+
+    private static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+        b[offset + 2] = (byte) (value >> 16);
+        b[offset + 3] = (byte) (value >> 24);
+    }
+}
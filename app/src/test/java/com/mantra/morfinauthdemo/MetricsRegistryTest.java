@@ -0,0 +1,71 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void histogram_percentilesWithinBucketResolution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.recordMicros(i * 1000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.count);
+        assertEquals(1_000_000, snapshot.maxMicros);
+        assertEquals(500_500, snapshot.meanMicros);
+        assertEquals(500_000, snapshot.p50Micros, 500_000 * 0.25);
+        assertEquals(990_000, snapshot.p99Micros, 990_000 * 0.25);
+        assertTrue(snapshot.p50Micros >= 500_000);
+        assertTrue(snapshot.p99Micros <= snapshot.maxMicros);
+    }
+
+    @Test
+    public void bucketBounds_coverEveryValue() {
+        for (long micros = 0; micros < 100_000; micros++) {
+            int index = LatencyHistogram.bucketIndex(micros);
+            assertTrue(micros <= LatencyHistogram.bucketUpperBound(index));
+            assertTrue(index == 0 || micros > LatencyHistogram.bucketUpperBound(index - 1));
+        }
+    }
+
+    @Test
+    public void snapshot_writesHistogramsCountersAndGauges() throws IOException {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.histogram(MetricsRegistry.DB_INSERT).recordMicros(1500);
+        metrics.add(MetricsRegistry.TEMPLATE_COMPARISONS, 40);
+        metrics.registerGauge(MetricsRegistry.GALLERY_SIZE, () -> 12);
+
+        File file = new File(folder.getRoot(), "metrics.json");
+        assertTrue(metrics.writeSnapshot(file));
+        String json = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+
+        assertTrue(json.contains("\"db.insert\":{\"count\":1"));
+        assertTrue(json.contains("\"match.comparisons\":{\"total\":40"));
+        assertTrue(json.contains("\"gallery.size\":12"));
+        assertTrue(metrics.summary().contains("db.insert: n=1"));
+    }
+
+    @Test
+    public void summary_matchRateCoversOnlyTheLastSnapshotInterval() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.add(MetricsRegistry.TEMPLATE_COMPARISONS, 1_000_000);
+        metrics.snapshotJson();
+
+        assertTrue(metrics.summary().endsWith("matches/s: 0"));
+        assertTrue(metrics.summary().contains("match.comparisons: 1000000"));
+    }
+}
@@ -0,0 +1,103 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MinutiaeTemplateMatcherTest {
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 400;
+
+    private final MinutiaeTemplateMatcher matcher = new MinutiaeTemplateMatcher();
+
+    @Test
+    public void match_identicalTemplatesScoreMaximum() {
+        int[][] minutiae = SyntheticTemplates.randomMinutiae(new Random(1), 40, WIDTH, HEIGHT);
+        byte[] template = SyntheticTemplates.fmr2011(WIDTH, HEIGHT, minutiae);
+        int[] score = new int[1];
+
+        int ret = matcher.match(template, template.clone(), score);
+
+        assertEquals(0, ret);
+        assertEquals(MinutiaeTemplateMatcher.MAX_SCORE, score[0]);
+    }
+
+    @Test
+    public void match_rotatedAndShiftedImpressionStillMatches() {
+        Random random = new Random(2);
+        int[][] minutiae = SyntheticTemplates.randomMinutiae(random, 40, WIDTH, HEIGHT);
+        int[][] moved = SyntheticTemplates.transform(minutiae, WIDTH, HEIGHT, 9, 25, -18);
+        // Second impression loses a few minutiae at the edge and picks up some spurious ones.
+        int[][] partial = Arrays.copyOf(moved, 34);
+        int[][] spurious = SyntheticTemplates.randomMinutiae(random, 4, WIDTH, HEIGHT);
+        int[][] second = new int[partial.length + spurious.length][];
+        System.arraycopy(partial, 0, second, 0, partial.length);
+        System.arraycopy(spurious, 0, second, partial.length, spurious.length);
+
+        int[] score = new int[1];
+        int ret = matcher.match(
+                SyntheticTemplates.fmr2011(WIDTH, HEIGHT, minutiae),
+                SyntheticTemplates.fmr2011(WIDTH, HEIGHT, second),
+                score);
+
+        assertEquals(0, ret);
+        assertTrue("score=" + score[0], score[0] >= ParallelIdentificationEngine.MATCH_THRESHOLD);
+    }
+
+    @Test
+    public void match_unrelatedFingersScoreBelowThreshold() {
+        Random random = new Random(3);
+        byte[] probe = SyntheticTemplates.fmr2011(WIDTH, HEIGHT,
+                SyntheticTemplates.randomMinutiae(random, 40, WIDTH, HEIGHT));
+        int[] score = new int[1];
+
+        for (int i = 0; i < 50; i++) {
+            byte[] other = SyntheticTemplates.fmr2011(WIDTH, HEIGHT,
+                    SyntheticTemplates.randomMinutiae(random, 40, WIDTH, HEIGHT));
+            assertEquals(0, matcher.match(probe, other, score));
+            assertTrue("score=" + score[0], score[0] < ParallelIdentificationEngine.MATCH_THRESHOLD);
+        }
+    }
+
+    @Test
+    public void match_invalidTemplateReportsError() {
+        byte[] template = SyntheticTemplates.fmr2011(WIDTH, HEIGHT,
+                SyntheticTemplates.randomMinutiae(new Random(4), 20, WIDTH, HEIGHT));
+        int[] score = new int[1];
+
+        int ret = matcher.match(template, new byte[]{1, 2, 3}, score);
+
+        assertEquals(MinutiaeTemplateMatcher.ERROR_INVALID_TEMPLATE, ret);
+        assertEquals(0, score[0]);
+    }
+
+    @Test
+    public void match_worksAsIdentificationScorer() {
+        Random random = new Random(5);
+        java.util.List<GalleryEntry> gallery = new java.util.ArrayList<>();
+        int[][] enrolled = null;
+        for (int i = 0; i < 300; i++) {
+            int[][] minutiae = SyntheticTemplates.randomMinutiae(random, 35, WIDTH, HEIGHT);
+            if (i == 211) {
+                enrolled = minutiae;
+            }
+            gallery.add(new GalleryEntry("USER_" + i, SyntheticTemplates.fmr2011(WIDTH, HEIGHT, minutiae)));
+        }
+        byte[] probe = SyntheticTemplates.fmr2011(WIDTH, HEIGHT,
+                SyntheticTemplates.transform(enrolled, WIDTH, HEIGHT, -6, -10, 12));
+
+        IdentificationEngine engine = new ParallelIdentificationEngine(matcher, () -> gallery, 4);
+        try {
+            IdentificationResult result = engine.identify(probe);
+
+            assertTrue(result.matched);
+            assertEquals("USER_211", result.userId);
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
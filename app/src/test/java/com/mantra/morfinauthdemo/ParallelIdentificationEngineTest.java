@@ -0,0 +1,219 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ParallelIdentificationEngineTest {
+
+    private IdentificationEngine engine;
+
+    @After
+    public void tearDown() {
+        if (engine != null) {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void identify_findsMatchingUser() {
+        List<GalleryEntry> gallery = gallery(1000);
+        engine = new ParallelIdentificationEngine(new EqualityMatcher(), () -> gallery, 4);
+
+        IdentificationResult result = engine.identify(template(737));
+
+        assertTrue(result.matched);
+        assertEquals("USER_737", result.userId);
+        assertEquals(1000, result.score);
+    }
+
+    @Test
+    public void identify_noMatchChecksWholeGallery() {
+        List<GalleryEntry> gallery = gallery(1000);
+        engine = new ParallelIdentificationEngine(new EqualityMatcher(), () -> gallery, 4);
+
+        IdentificationResult result = engine.identify(template(5000));
+
+        assertFalse(result.matched);
+        assertEquals(1000, result.checked);
+    }
+
+    @Test
+    public void identify_emptyGallery() {
+        engine = new ParallelIdentificationEngine(new EqualityMatcher(),
+                Collections::<GalleryEntry>emptyList, 4);
+
+        IdentificationResult result = engine.identify(template(1));
+
+        assertFalse(result.matched);
+        assertEquals(0, result.checked);
+    }
+
+    @Test
+    public void identify_stopsOtherShardsAfterMatch() {
+        List<GalleryEntry> gallery = gallery(4000);
+        EqualityMatcher matcher = new EqualityMatcher();
+        matcher.delayNanos = 200_000;
+        engine = new ParallelIdentificationEngine(matcher, () -> gallery, 4);
+
+        IdentificationResult result = engine.identify(template(3));
+
+        assertTrue(result.matched);
+        assertEquals("USER_3", result.userId);
+        assertTrue("calls=" + matcher.calls.get(), matcher.calls.get() < gallery.size() / 2);
+    }
+
+    @Test
+    public void identify_prefilterMatchesNearestCandidatesFirst() {
+        List<GalleryEntry> gallery = fmrGallery(2000);
+        EqualityMatcher matcher = new EqualityMatcher();
+        engine = new ParallelIdentificationEngine(matcher, () -> gallery, 4,
+                new CandidatePrefilter(0.1, 50, true));
+
+        IdentificationResult result = engine.identify(gallery.get(1234).getTemplate());
+
+        assertTrue(result.matched);
+        assertEquals("USER_1234", result.userId);
+        assertTrue("calls=" + matcher.calls.get(), matcher.calls.get() <= 200);
+    }
+
+    @Test
+    public void identify_prefilterFallsBackToWholeGallery() {
+        List<GalleryEntry> gallery = fmrGallery(2000);
+        engine = new ParallelIdentificationEngine(new EqualityMatcher(), () -> gallery, 4,
+                new CandidatePrefilter(0.1, 50, true));
+
+        byte[] unknown = SyntheticTemplates.fmr2011(400, 500,
+                SyntheticTemplates.randomMinutiae(new Random(-1), 40, 400, 500));
+        IdentificationResult result = engine.identify(unknown);
+
+        assertFalse(result.matched);
+        assertEquals(2000, result.checked);
+    }
+
+    @Test
+    public void identifyTopK_returnsBestCandidatesIndependentOfOrder() {
+        List<GalleryEntry> gallery = gallery(1000);
+        engine = new ParallelIdentificationEngine(new DistanceMatcher(), () -> gallery, 4);
+
+        IdentificationResult result = engine.identifyTopK(template(500), 3);
+
+        assertTrue(result.matched);
+        assertEquals("USER_500", result.userId);
+        assertEquals(1000, result.checked);
+        assertEquals(3, result.candidates.size());
+        assertEquals("USER_500", result.candidates.get(0).userId);
+        assertEquals("USER_499", result.candidates.get(1).userId);
+        assertEquals("USER_501", result.candidates.get(2).userId);
+    }
+
+    @Test
+    public void identifyTopK_belowThresholdStillReportsCandidates() {
+        List<GalleryEntry> gallery = gallery(1000);
+        engine = new ParallelIdentificationEngine(new DistanceMatcher(), () -> gallery, 4);
+        engine.setMatchThreshold(1001);
+
+        IdentificationResult result = engine.identifyTopK(template(10), 2);
+
+        assertFalse(result.matched);
+        assertNull(result.userId);
+        assertEquals(2, result.candidates.size());
+        assertEquals(1000, result.candidates.get(0).score);
+    }
+
+    @Test
+    public void identifyBefore_returnsBestSoFarWhenDeadlinePasses() {
+        List<GalleryEntry> gallery = gallery(4000);
+        EqualityMatcher matcher = new EqualityMatcher();
+        matcher.delayNanos = 200_000;
+        engine = new ParallelIdentificationEngine(matcher, () -> gallery, 2);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+        IdentificationResult result = engine.identifyBefore(template(5), 1, deadline);
+
+        assertTrue(result.matched);
+        assertEquals("USER_5", result.userId);
+        assertFalse(result.exhaustive);
+        assertTrue("checked=" + result.checked, result.checked < gallery.size());
+        assertEquals(1, engine.getDeadlineHits());
+    }
+
+    @Test
+    public void identifyBefore_exhaustiveWithinBudget() {
+        List<GalleryEntry> gallery = gallery(1000);
+        engine = new ParallelIdentificationEngine(new EqualityMatcher(), () -> gallery, 4);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        IdentificationResult result = engine.identifyBefore(template(999), 3, deadline);
+
+        assertTrue(result.matched);
+        assertEquals("USER_999", result.userId);
+        assertTrue(result.exhaustive);
+        assertEquals(1000, result.checked);
+        assertEquals(0, engine.getDeadlineHits());
+    }
+
+    private static List<GalleryEntry> fmrGallery(int size) {
+        Random random = new Random(7);
+        List<GalleryEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int[][] minutiae = SyntheticTemplates.randomMinutiae(random, 20 + random.nextInt(40), 400, 500);
+            entries.add(new GalleryEntry("USER_" + i, SyntheticTemplates.fmr2011(400, 500, minutiae), 80, 1));
+        }
+        return entries;
+    }
+
+    private static List<GalleryEntry> gallery(int size) {
+        List<GalleryEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new GalleryEntry("USER_" + i, template(i)));
+        }
+        return entries;
+    }
+
+    private static byte[] template(int id) {
+        return new byte[]{(byte) (id >> 24), (byte) (id >> 16), (byte) (id >> 8), (byte) id};
+    }
+
+    // Scores 1000 for the same id, minus 10 per id of distance.
+    private static class DistanceMatcher implements TemplateMatcher {
+
+        @Override
+        public int match(byte[] probeTemplate, byte[] galleryTemplate, int[] score) {
+            score[0] = Math.max(0, 1000 - 10 * Math.abs(id(probeTemplate) - id(galleryTemplate)));
+            return 0;
+        }
+
+        private static int id(byte[] template) {
+            return (template[0] & 0xFF) << 24 | (template[1] & 0xFF) << 16 | (template[2] & 0xFF) << 8 | (template[3] & 0xFF);
+        }
+    }
+
+    private static class EqualityMatcher implements TemplateMatcher {
+
+        final AtomicInteger calls = new AtomicInteger();
+        long delayNanos;
+
+        @Override
+        public int match(byte[] probeTemplate, byte[] galleryTemplate, int[] score) {
+            calls.incrementAndGet();
+            if (delayNanos > 0) {
+                long end = System.nanoTime() + delayNanos;
+                while (System.nanoTime() < end) {
+                    Thread.onSpinWait();
+                }
+            }
+            score[0] = Arrays.equals(probeTemplate, galleryTemplate) ? 1000 : 0;
+            return 0;
+        }
+    }
+}
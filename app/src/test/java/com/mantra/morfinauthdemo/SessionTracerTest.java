@@ -0,0 +1,49 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SessionTracerTest {
+
+    @Test
+    public void toJson_writesCompleteAndInstantEvents() {
+        SessionTracer tracer = new SessionTracer(16);
+        long start = System.nanoTime();
+        tracer.complete("GetImage", start, "finger \"1\"");
+        tracer.instant("retry", null);
+
+        String json = tracer.toJson();
+
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.contains("\"name\":\"GetImage\",\"cat\":\"capture\",\"ph\":\"X\""));
+        assertTrue(json.contains("\"args\":{\"detail\":\"finger \\\"1\\\"\"}"));
+        assertTrue(json.contains("\"name\":\"retry\",\"cat\":\"capture\",\"ph\":\"i\""));
+        assertTrue(json.contains("\"ph\":\"M\""));
+        assertEquals(2, tracer.size());
+    }
+
+    @Test
+    public void ring_keepsNewestSpans() {
+        SessionTracer tracer = new SessionTracer(5);
+        for (int i = 0; i < 20; i++) {
+            tracer.instant("span" + i, null);
+        }
+
+        String json = tracer.toJson();
+
+        assertEquals(8, tracer.size());
+        assertEquals(12, tracer.getDroppedCount());
+        assertFalse(json.contains("\"span11\""));
+        assertTrue(json.contains("\"span12\""));
+        assertTrue(json.indexOf("\"span12\"") < json.indexOf("\"span19\""));
+    }
+
+    @Test
+    public void disabled_recordsNothing() {
+        SessionTracer.DISABLED.complete("GetImage", System.nanoTime());
+
+        assertFalse(SessionTracer.DISABLED.isEnabled());
+        assertEquals(0, SessionTracer.DISABLED.size());
+    }
+}
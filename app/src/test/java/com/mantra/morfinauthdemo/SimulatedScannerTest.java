@@ -0,0 +1,173 @@
+package com.mantra.morfinauthdemo;
+
+import com.mantra.morfinauth.DeviceInfo;
+import com.mantra.morfinauth.MorfinAuth_Callback;
+import com.mantra.morfinauth.enums.DeviceDetection;
+import com.mantra.morfinauth.enums.DeviceModel;
+import com.mantra.morfinauth.enums.ImageFormat;
+import com.mantra.morfinauth.enums.TemplateFormat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SimulatedScannerTest {
+
+    private final List<String> detections = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile int completedCode = Integer.MIN_VALUE;
+
+    private final MorfinAuth_Callback callback = new MorfinAuth_Callback() {
+        @Override
+        public void OnDeviceDetection(String name, DeviceDetection detection) {
+            detections.add(name + ":" + detection);
+        }
+
+        @Override
+        public void OnPreview(int errorCode, int quality, byte[] image) {
+        }
+
+        @Override
+        public void OnComplete(int errorCode, int quality, int nfiq) {
+            completedCode = errorCode;
+            completed.countDown();
+        }
+
+        @Override
+        public void OnFingerPosition(int errorCode, int position) {
+        }
+    };
+
+    @Test
+    public void autoCapture_replaysCorpusInOrder() {
+        List<SimulatedScanner.Sample> corpus = corpus(2);
+        SimulatedScanner scanner = connectedScanner(corpus);
+
+        int[] quality = new int[1];
+        int[] nfiq = new int[1];
+        assertEquals(Scanner.SUCCESS, scanner.autoCapture(60, 10000, quality, nfiq));
+        assertEquals(SimulatedScanner.Sample.DEFAULT_QUALITY, quality[0]);
+
+        byte[] template = new byte[4096];
+        int[] size = new int[1];
+        assertEquals(Scanner.SUCCESS, scanner.getTemplate(template, size, TemplateFormat.FMR_V2011));
+        assertEquals(corpus.get(0).template.length, size[0]);
+
+        byte[] image = new byte[4096];
+        assertEquals(Scanner.SUCCESS, scanner.getImage(image, size, 1, ImageFormat.BMP));
+        assertEquals(corpus.get(0).image.length, size[0]);
+        assertEquals(SimulatedScanner.ERROR_UNSUPPORTED_FORMAT, scanner.getImage(image, size, 10, ImageFormat.WSQ));
+
+        int[] score = new int[1];
+        assertEquals(Scanner.SUCCESS, scanner.autoCapture(60, 10000, quality, nfiq));
+        assertEquals(Scanner.SUCCESS, scanner.getTemplate(template, size, TemplateFormat.FMR_V2011));
+        assertEquals(Scanner.SUCCESS, scanner.matchTemplate(corpus.get(1).template,
+                Arrays.copyOf(template, size[0]), score, TemplateFormat.FMR_V2011));
+        assertEquals(MinutiaeTemplateMatcher.MAX_SCORE, score[0]);
+    }
+
+    @Test
+    public void injectedFailures_reportSdkCodes() {
+        SimulatedScanner scanner = connectedScanner(corpus(1));
+        int[] quality = new int[1];
+        int[] nfiq = new int[1];
+
+        scanner.setFailureRates(1.0, 0.0);
+        assertEquals(Scanner.ERROR_TIMEOUT, scanner.autoCapture(60, 10000, quality, nfiq));
+
+        scanner.setFailureRates(0.0, 1.0);
+        assertEquals(Scanner.ERROR_DEVICE_NOT_CONNECTED, scanner.autoCapture(60, 10000, quality, nfiq));
+        assertEquals("MFS500:DISCONNECTED", detections.get(detections.size() - 1));
+        assertEquals(Scanner.ERROR_DEVICE_NOT_CONNECTED, scanner.init(DeviceModel.MFS500, "", new DeviceInfo()));
+    }
+
+    @Test
+    public void stopCapture_endsAsyncCapture() throws InterruptedException {
+        SimulatedScanner scanner = connectedScanner(corpus(1));
+        scanner.setCaptureLatency(5000, 5000);
+
+        assertEquals(Scanner.SUCCESS, scanner.startCapture(60, 10000));
+        assertEquals(SimulatedScanner.ERROR_CAPTURE_RUNNING, scanner.startCapture(60, 10000));
+        scanner.stopCapture();
+
+        assertTrue(completed.await(2, TimeUnit.SECONDS));
+        assertEquals(SimulatedScanner.ERROR_CAPTURE_STOPPED, completedCode);
+    }
+
+    @Test
+    public void enrollAndIdentify_runsManyCyclesWithoutHardware() {
+        List<SimulatedScanner.Sample> corpus = corpus(20);
+        SimulatedScanner scanner = connectedScanner(corpus);
+        List<GalleryEntry> gallery = new ArrayList<>();
+        int[] quality = new int[1];
+        int[] nfiq = new int[1];
+        byte[] buffer = new byte[4096];
+        int[] size = new int[1];
+
+        for (int i = 0; i < corpus.size(); i++) {
+            assertEquals(Scanner.SUCCESS, scanner.autoCapture(60, 10000, quality, nfiq));
+            assertEquals(Scanner.SUCCESS, scanner.getTemplate(buffer, size, TemplateFormat.FMR_V2011));
+            gallery.add(new GalleryEntry("USER_" + i, Arrays.copyOf(buffer, size[0])));
+        }
+
+        IdentificationEngine engine = new ParallelIdentificationEngine(
+                new SdkTemplateMatcher(scanner), () -> gallery, 2);
+        try {
+            for (int cycle = 0; cycle < 200; cycle++) {
+                assertEquals(Scanner.SUCCESS, scanner.autoCapture(60, 10000, quality, nfiq));
+                assertEquals(Scanner.SUCCESS, scanner.getTemplate(buffer, size, TemplateFormat.FMR_V2011));
+                IdentificationResult result = engine.identify(Arrays.copyOf(buffer, size[0]));
+                assertTrue(result.matched);
+                assertEquals("USER_" + (cycle % corpus.size()), result.userId);
+            }
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    private SimulatedScanner connectedScanner(List<SimulatedScanner.Sample> corpus) {
+        SimulatedScanner scanner = new SimulatedScanner(callback, corpus, 7).setCaptureLatency(0, 0);
+        scanner.connect();
+        DeviceInfo info = new DeviceInfo();
+        assertEquals(Scanner.SUCCESS, scanner.init(DeviceModel.MFS500, "", info));
+        assertEquals(SimulatedScanner.SERIAL_NUMBER, info.SerialNo);
+        assertEquals(32, info.Width);
+        return scanner;
+    }
+
+    private static List<SimulatedScanner.Sample> corpus(int count) {
+        Random random = new Random(count);
+        List<SimulatedScanner.Sample> samples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] template = SyntheticTemplates.fmr2011(400, 500, SyntheticTemplates.randomMinutiae(random, 30, 400, 500));
+            samples.add(new SimulatedScanner.Sample(bmp(32, 40), template,
+                    SimulatedScanner.Sample.DEFAULT_QUALITY, SimulatedScanner.Sample.DEFAULT_NFIQ));
+        }
+        return samples;
+    }
+
+    // 8-bit grayscale BMP header followed by zero pixels; only the dimensions matter here.
+    private static byte[] bmp(int width, int height) {
+        byte[] image = new byte[1078 + width * height];
+        image[0] = 'B';
+        image[1] = 'M';
+        writeInt(image, 18, width);
+        writeInt(image, 22, height);
+        return image;
+    }
+
+    private static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+        b[offset + 2] = (byte) (value >> 16);
+        b[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,59 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StartupOrchestratorTest {
+
+    @Test
+    public void phasesRunAfterTheirPrerequisites() throws InterruptedException {
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch finished = new CountDownLatch(3);
+        StartupOrchestrator startup = new StartupOrchestrator(Runnable::run,
+                (phase, durationMillis, error) -> finished.countDown());
+
+        startup.addPhase("database", () -> {
+            Thread.sleep(50);
+            order.add("database");
+        });
+        startup.addPhase("sdk", () -> order.add("sdk"));
+        startup.addPhase("gallery", () -> order.add("gallery"), "database", "sdk");
+        startup.start();
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(3, order.size());
+        assertEquals("gallery", order.get(2));
+        assertTrue(startup.isComplete("gallery"));
+        assertTrue(startup.getDurationMillis("database") >= 40);
+    }
+
+    @Test
+    public void failedPrerequisiteFailsDependents() throws InterruptedException {
+        List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch finished = new CountDownLatch(2);
+        StartupOrchestrator startup = new StartupOrchestrator(Runnable::run, (phase, durationMillis, error) -> {
+            if (error != null) {
+                failed.add(phase);
+            }
+            finished.countDown();
+        });
+
+        startup.addPhase("database", () -> {
+            throw new IllegalStateException("disk full");
+        });
+        startup.addPhase("gallery", () -> fail("must not run"), "database");
+        startup.start();
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(2, failed.size());
+        assertFalse(startup.isComplete("gallery"));
+        assertEquals("database=failed, gallery=failed", startup.describeTimings());
+    }
+}
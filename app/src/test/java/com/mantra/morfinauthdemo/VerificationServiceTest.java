@@ -0,0 +1,93 @@
+package com.mantra.morfinauthdemo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class VerificationServiceTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final TemplateGallery gallery = new TemplateGallery();
+    private VerificationService service;
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void verify_matchesAgainstGalleryTemplateOffTheCallingThread() throws Exception {
+        byte[] enrolled = template(1);
+        byte[] other = template(2);
+        gallery.load(Collections.singletonList(new GalleryEntry("USER_001", enrolled)));
+        List<String> matchThreads = Collections.synchronizedList(new ArrayList<String>());
+        service = new VerificationService((probe, stored, score) -> {
+            matchThreads.add(Thread.currentThread().getName());
+            score[0] = Arrays.equals(probe, stored) ? 900 : 100;
+            return 0;
+        }, gallery::get, metrics, Runnable::run, 1000);
+
+        VerificationResult match = service.verify("USER_001", enrolled, null).get(2, TimeUnit.SECONDS);
+        VerificationResult mismatch = service.verify("USER_001", other, null).get(2, TimeUnit.SECONDS);
+        VerificationResult unknown = service.verify("USER_404", enrolled, null).get(2, TimeUnit.SECONDS);
+
+        assertEquals(VerificationResult.Status.MATCH, match.status);
+        assertEquals(900, match.score);
+        assertEquals(VerificationResult.Status.MISMATCH, mismatch.status);
+        assertEquals(VerificationResult.Status.NOT_ENROLLED, unknown.status);
+        assertEquals(Collections.nCopies(2, "Verification"), matchThreads);
+
+        assertEquals(3, metrics.histogram(MetricsRegistry.MATCH_VERIFY).getCount());
+        assertEquals(3, metrics.counter(MetricsRegistry.VERIFICATIONS).get());
+        assertEquals(2, metrics.counter(MetricsRegistry.TEMPLATE_COMPARISONS).get());
+    }
+
+    @Test
+    public void verify_reportsTimeoutOnceWhenMatchOverruns() throws Exception {
+        gallery.load(Collections.singletonList(new GalleryEntry("USER_001", template(1))));
+        CountDownLatch release = new CountDownLatch(1);
+        service = new VerificationService((probe, stored, score) -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            score[0] = 900;
+            return 0;
+        }, gallery::get, metrics, Runnable::run, 50);
+
+        List<VerificationResult> delivered = Collections.synchronizedList(new ArrayList<VerificationResult>());
+        CountDownLatch callback = new CountDownLatch(1);
+        VerificationResult result = service.verify("USER_001", template(1), r -> {
+            delivered.add(r);
+            callback.countDown();
+        }).get(2, TimeUnit.SECONDS);
+
+        assertEquals(VerificationResult.Status.TIMEOUT, result.status);
+        assertTrue(result.getLatencyMillis() >= 50);
+        assertTrue(callback.await(2, TimeUnit.SECONDS));
+
+        // Queued behind the overrunning match, so by the time it completes the late result has been dropped.
+        release.countDown();
+        VerificationResult next = service.verify("USER_404", template(1), null).get(2, TimeUnit.SECONDS);
+        assertEquals(VerificationResult.Status.NOT_ENROLLED, next.status);
+        assertEquals(1, delivered.size());
+        assertEquals(1, metrics.counter(MetricsRegistry.VERIFICATION_TIMEOUTS).get());
+        assertEquals(1, metrics.histogram(MetricsRegistry.MATCH_VERIFY).getCount());
+    }
+
+    private static byte[] template(int seed) {
+        return SyntheticTemplates.fmr2011(400, 500, SyntheticTemplates.randomMinutiae(new Random(seed), 30, 400, 500));
+    }
+}
@@ -0,0 +1,145 @@
+package com.mantra.morfinauthdemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// FingerprintDatabaseHelper's statements and pragmas replayed through sqlite-jdbc, since the helper
+// itself needs android.database. Schema and SQL come from FingerprintSchema, shared with the helper.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DatabaseBenchmark {
+
+    private static final int ENROLLMENT_BATCH = 10;
+    private static final int IMAGE_BYTES = 256 * 360 + 1078;
+
+    @Param({"1000"})
+    public int preloaded;
+
+    private File file;
+    private Connection connection;
+    private PreparedStatement insertTemplate;
+    private PreparedStatement insertImage;
+    private PreparedStatement selectTemplate;
+    private byte[][] templates;
+    private byte[] image;
+    private int nextUser;
+    private final Random random = new Random(3);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        file = File.createTempFile("fingerprint_auth", ".db");
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute(FingerprintSchema.PRAGMA_CACHE_SIZE);
+            statement.execute(FingerprintSchema.PRAGMA_TEMP_STORE);
+            statement.execute(FingerprintSchema.createFingerprintsTable(FingerprintSchema.TABLE_FINGERPRINTS));
+            statement.execute(FingerprintSchema.createImagesTable());
+        }
+
+        insertTemplate = connection.prepareStatement(FingerprintSchema.INSERT_TEMPLATE);
+        insertImage = connection.prepareStatement(FingerprintSchema.INSERT_IMAGE);
+        selectTemplate = connection.prepareStatement(FingerprintSchema.SELECT_TEMPLATE_BY_USER_ID);
+
+        templates = new byte[64][];
+        for (int i = 0; i < templates.length; i++) {
+            templates[i] = SyntheticTemplates.fmr2011(400, 500,
+                    SyntheticTemplates.randomMinutiae(random, 30 + random.nextInt(30), 400, 500));
+        }
+        image = new byte[IMAGE_BYTES];
+        random.nextBytes(image);
+
+        connection.setAutoCommit(false);
+        for (int i = 0; i < preloaded; i++) {
+            insert();
+        }
+        connection.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+        file.delete();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+    }
+
+    // EnrollmentSession: ten captures committed in one transaction.
+    @Benchmark
+    public void enrollBatchInTransaction() throws SQLException {
+        connection.setAutoCommit(false);
+        for (int i = 0; i < ENROLLMENT_BATCH; i++) {
+            insert();
+        }
+        connection.commit();
+    }
+
+    // The pre-session pattern: one implicit transaction per capture.
+    @Benchmark
+    public void enrollBatchAutocommit() throws SQLException {
+        connection.setAutoCommit(true);
+        for (int i = 0; i < ENROLLMENT_BATCH; i++) {
+            insert();
+        }
+    }
+
+    @Benchmark
+    public byte[] lookupTemplateByUserId() throws SQLException {
+        selectTemplate.setString(1, userId(random.nextInt(preloaded)));
+        try (ResultSet rows = selectTemplate.executeQuery()) {
+            return rows.next() ? rows.getBytes(1) : null;
+        }
+    }
+
+    // Gallery load: the query getAllTemplates() runs when the snapshot has to be rebuilt.
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void loadAllTemplates(Blackhole blackhole) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(FingerprintSchema.SELECT_ALL_TEMPLATES)) {
+            while (rows.next()) {
+                blackhole.consume(rows.getString(1));
+                blackhole.consume(rows.getBytes(2));
+            }
+        }
+    }
+
+    private void insert() throws SQLException {
+        String userId = userId(nextUser);
+        insertTemplate.setString(1, userId);
+        insertTemplate.setBytes(2, templates[nextUser % templates.length]);
+        insertTemplate.setInt(3, 80);
+        insertTemplate.setInt(4, 2);
+        insertTemplate.executeUpdate();
+
+        insertImage.setString(1, userId);
+        insertImage.setBytes(2, image);
+        insertImage.executeUpdate();
+        nextUser++;
+    }
+
+    private static String userId(int index) {
+        return String.format("USER_%06d", index + 1);
+    }
+}
@@ -0,0 +1,79 @@
+package com.mantra.morfinauthdemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// 1:N identification with the Java matcher standing in for the SDK. The impostor probe forces a
+// full gallery scan, which is the latency a door terminal sees for an unknown finger.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IdentificationBenchmark {
+
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 500;
+
+    @Param({"1000", "10000"})
+    public int gallerySize;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private IdentificationEngine engine;
+    private byte[] genuineProbe;
+    private byte[] impostorProbe;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        List<GalleryEntry> gallery = new ArrayList<>(gallerySize);
+        int[][] target = null;
+        for (int i = 0; i < gallerySize; i++) {
+            int[][] minutiae = SyntheticTemplates.randomMinutiae(random, 25 + random.nextInt(30), WIDTH, HEIGHT);
+            if (i == gallerySize / 2) {
+                target = minutiae;
+            }
+            gallery.add(new GalleryEntry(String.format("USER_%05d", i), SyntheticTemplates.fmr2011(WIDTH, HEIGHT, minutiae), 80, 2));
+        }
+
+        genuineProbe = SyntheticTemplates.fmr2011(WIDTH, HEIGHT,
+                SyntheticTemplates.transform(target, WIDTH, HEIGHT, 6, 12, -8));
+        impostorProbe = SyntheticTemplates.fmr2011(WIDTH, HEIGHT,
+                SyntheticTemplates.randomMinutiae(random, 40, WIDTH, HEIGHT));
+
+        engine = new ParallelIdentificationEngine(new MinutiaeTemplateMatcher(), () -> gallery, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public IdentificationResult firstHitImpostor() {
+        return engine.identify(impostorProbe);
+    }
+
+    @Benchmark
+    public IdentificationResult firstHitGenuine() {
+        return engine.identify(genuineProbe);
+    }
+
+    @Benchmark
+    public IdentificationResult topFiveImpostor() {
+        return engine.identifyTopK(impostorProbe, 5);
+    }
+}
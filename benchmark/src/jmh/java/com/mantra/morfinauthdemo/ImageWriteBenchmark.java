@@ -0,0 +1,116 @@
+package com.mantra.morfinauthdemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+// Per-capture image archiving: the raw BMP write the capture loop does today against deflate, which
+// is what PNG uses internally, at a fast and the default level.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageWriteBenchmark {
+
+    private static final int BMP_HEADER_BYTES = 1078;
+
+    @Param({"256x360", "480x640"})
+    public String size;
+
+    private byte[] bmp;
+    private byte[] compressed;
+    private final Deflater fastDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final Deflater defaultDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private File directory;
+    private int fileCounter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+
+        // Ridge-like stripes plus sensor noise compress roughly like a real fingerprint.
+        Random random = new Random(11);
+        bmp = new byte[BMP_HEADER_BYTES + width * height];
+        bmp[0] = 'B';
+        bmp[1] = 'M';
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double ridge = Math.sin((x * 0.8 + y * 0.6) / 3.0);
+                bmp[BMP_HEADER_BYTES + y * width + x] = (byte) (128 + ridge * 90 + random.nextGaussian() * 3);
+            }
+        }
+        compressed = new byte[bmp.length + bmp.length / 100 + 64];
+
+        directory = File.createTempFile("archive", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fastDeflater.end();
+        defaultDeflater.end();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public long writeRawBmp() throws IOException {
+        File file = new File(directory, "finger_" + (fileCounter++ % 16) + ".bmp");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bmp);
+        }
+        return file.length();
+    }
+
+    @Benchmark
+    public int deflateFast() {
+        return deflate(fastDeflater);
+    }
+
+    @Benchmark
+    public int deflateDefault() {
+        return deflate(defaultDeflater);
+    }
+
+    @Benchmark
+    public long deflateFastAndWrite() throws IOException {
+        int length = deflate(fastDeflater);
+        File file = new File(directory, "finger_" + (fileCounter++ % 16) + ".z");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(compressed, 0, length);
+        }
+        return length;
+    }
+
+    private int deflate(Deflater deflater) {
+        deflater.reset();
+        deflater.setInput(bmp);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,76 @@
+package com.mantra.morfinauthdemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TemplateParsingBenchmark {
+
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 500;
+
+    @Param({"20", "60"})
+    public int minutiae;
+
+    private byte[] template;
+    private byte[] other;
+    private ByteBuffer direct;
+    private final FmrTemplate parsed = new FmrTemplate();
+    private final MinutiaeTemplateMatcher matcher = new MinutiaeTemplateMatcher();
+    private final int[] score = new int[1];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        template = SyntheticTemplates.fmr2011(WIDTH, HEIGHT,
+                SyntheticTemplates.randomMinutiae(random, minutiae, WIDTH, HEIGHT));
+        other = SyntheticTemplates.fmr2011(WIDTH, HEIGHT,
+                SyntheticTemplates.randomMinutiae(random, minutiae, WIDTH, HEIGHT));
+
+        // Same access path as a mapped gallery snapshot.
+        direct = ByteBuffer.allocateDirect(template.length);
+        direct.put(template);
+        direct.clear();
+    }
+
+    @Benchmark
+    public FmrTemplate parseHeap() {
+        FmrTemplateParser.parseInto(template, 0, template.length, parsed);
+        return parsed;
+    }
+
+    @Benchmark
+    public FmrTemplate parseDirectBuffer() {
+        FmrTemplateParser.parseInto(direct, 0, template.length, parsed);
+        return parsed;
+    }
+
+    @Benchmark
+    public byte[] extractFeatures() {
+        return TemplateFeatures.extract(template);
+    }
+
+    @Benchmark
+    public int matchImpostorPair() {
+        matcher.match(template, other, score);
+        return score[0];
+    }
+
+    @Benchmark
+    public int matchImpostorPairDirect() {
+        matcher.match(other, direct, 0, template.length, score);
+        return score[0];
+    }
+}